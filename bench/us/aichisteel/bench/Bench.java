@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.DecimalFormat;
+
+/**
+ * Minimal JMH-style harness: timed warmup and measurement iterations on
+ * the calling thread, reporting throughput and allocated bytes per
+ * operation (the equivalent of JMH's gc.alloc.rate.norm). Allocation is
+ * read from com.sun.management.ThreadMXBean when the JVM provides it.
+ */
+public class Bench {
+	public interface Task {
+		// performs one operation
+		public void run();
+	}
+
+	public static volatile double sink; // keeps results alive
+
+	private static final DecimalFormat FORM = new DecimalFormat("#,##0.0");
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+	private static Method sAllocatedBytes = null;
+
+	static {
+		try {
+			Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+			if (c.isInstance(THREADS)) {
+				sAllocatedBytes = c.getMethod("getThreadAllocatedBytes",
+						long.class);
+			}
+		} catch (Exception e) {
+			sAllocatedBytes = null;
+		}
+	}
+
+	private static int sWarmupIterations = 3;
+	private static int sIterations = 5;
+	private static long sIterationTime = 1000; // [ms]
+
+	public static void configure(int warmup, int iterations, long ms) {
+		sWarmupIterations = warmup;
+		sIterations = iterations;
+		sIterationTime = ms;
+	}
+
+	public static void header() {
+		System.out.println(String.format("%-48s %16s %12s %14s", "Benchmark",
+				"ops/s", "ns/op", "B/op"));
+	}
+
+	public static void measure(String name, Task task) {
+		for (int i = 0; i < sWarmupIterations; i++) {
+			iteration(task);
+		}
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		for (int i = 0; i < sIterations; i++) {
+			long[] r = iteration(task);
+			ops += r[0];
+			nanos += r[1];
+			bytes += r[2];
+		}
+		double opsPerSec = ops * 1e9 / nanos;
+		String alloc = bytes < 0 ? "n/a" : FORM.format((double) bytes / ops);
+		System.out.println(String.format("%-48s %16s %12s %14s", name,
+				FORM.format(opsPerSec), FORM.format((double) nanos / ops),
+				alloc));
+	}
+
+	private static long[] iteration(Task task) {
+		long deadline = System.nanoTime() + sIterationTime * 1000000;
+		long ops = 0;
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		long now;
+		do {
+			// check the clock every few operations only
+			for (int i = 0; i < 16; i++) {
+				task.run();
+			}
+			ops += 16;
+			now = System.nanoTime();
+		} while (now < deadline);
+		long after = allocatedBytes();
+		return new long[] { ops, now - start,
+				bytes < 0 ? -1 : after - bytes };
+	}
+
+	private static long allocatedBytes() {
+		if (sAllocatedBytes == null) {
+			return -1;
+		}
+		try {
+			return (Long) sAllocatedBytes.invoke(THREADS, Thread
+					.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
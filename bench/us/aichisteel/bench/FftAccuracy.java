@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.bench;
+
+import java.util.Random;
+
+import us.aichisteel.misc.FFT4g;
+import us.aichisteel.misc.FFT4gFloat;
+
+/**
+ * Accuracy check of FFT4gFloat against FFT4g. Inputs are 16-bit
+ * quantized noise plus tones, like magnetometer data. For each size the
+ * forward and round-trip errors are printed relative to the largest
+ * spectral component; the program exits with status 1 if any exceeds
+ * the limit.
+ *
+ * java -cp bin/classes:bench-classes us.aichisteel.bench.FftAccuracy
+ */
+public class FftAccuracy {
+	private static final double LIMIT = 1e-5;
+
+	public static void main(String args[]) {
+		Random r = new Random(0);
+		boolean failed = false;
+		System.out.println("n          forward err    round-trip err");
+		for (int n = 4; n <= 1 << 20; n <<= 1) {
+			double[] a = new double[n];
+			float[] f = new float[n];
+			for (int i = 0; i < n; i++) {
+				double v = 3000 * Math.sin(i * 0.05) + 500
+						* Math.cos(i * 0.91) + r.nextGaussian() * 200;
+				a[i] = Math.round(v); // 16-bit data is exact in float
+				f[i] = (float) a[i];
+			}
+			double[] src = a.clone();
+			new FFT4g(n).rdft(1, a);
+			FFT4gFloat fft = new FFT4gFloat(n);
+			fft.rdft(1, f);
+			double peak = 0;
+			double err = 0;
+			for (int i = 0; i < n; i++) {
+				peak = Math.max(peak, Math.abs(a[i]));
+				err = Math.max(err, Math.abs(a[i] - f[i]));
+			}
+			double forward = err / peak;
+
+			// inverse, scaled by 2/n as documented for rdft
+			fft.rdft(-1, f);
+			double srcPeak = 0;
+			err = 0;
+			for (int i = 0; i < n; i++) {
+				srcPeak = Math.max(srcPeak, Math.abs(src[i]));
+				err = Math.max(err, Math.abs(src[i] - f[i] * 2.0 / n));
+			}
+			double roundTrip = err / srcPeak;
+			System.out.println(String.format("%-10d %-14.3e %-14.3e", n,
+					forward, roundTrip));
+			if (forward > LIMIT || roundTrip > LIMIT) {
+				failed = true;
+			}
+		}
+		System.out.println(failed ? "FAILED" : "OK");
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
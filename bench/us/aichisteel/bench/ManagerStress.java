@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package us.aichisteel.bench;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import us.aichisteel.amisensor.AMISensor;
+import us.aichisteel.amisensor.AMISensorInterface;
+import us.aichisteel.amisensor.AMISensorManager;
+import us.aichisteel.amisensor.MemoryTransport;
+import us.aichisteel.amisensor.NTSensor;
+
+/**
+ * Stress check of AMISensorManager: feeder threads push samples into
+ * MemoryTransport sensors in every read mode while the pool reads them.
+ * It fails if addData() of one sensor ever runs on two threads at once,
+ * or if any sample is lost. The program exits with status 1 on failure.
+ *
+ * java -cp bin/classes:bench-classes:android.jar:physicaloid.jar
+ *     us.aichisteel.bench.ManagerStress
+ */
+public class ManagerStress {
+	private static final int SENSORS = 6;
+	private static final int THREADS = 4;
+	private static final int SAMPLES = 5000;
+
+	private static final AMISensorInterface LISTENER = new AMISensorInterface() {
+		@Override
+		public void attachedSensor() {
+		}
+
+		@Override
+		public void detachedSensor() {
+		}
+
+		@Override
+		public void dataReady() {
+		}
+	};
+
+	private static final class CheckedSensor extends NTSensor {
+		final AtomicInteger mInside = new AtomicInteger();
+		volatile int mMaxInside = 0;
+
+		CheckedSensor(MemoryTransport transport) {
+			super(null, LISTENER, transport);
+		}
+
+		@Override
+		public void addData(byte[] rbuf, int len) {
+			int inside = mInside.incrementAndGet();
+			if (inside > mMaxInside) {
+				mMaxInside = inside;
+			}
+			Thread.yield(); // widen the window for a second caller
+			super.addData(rbuf, len);
+			mInside.decrementAndGet();
+		}
+	}
+
+	public static void main(String args[]) throws InterruptedException {
+		int[] modes = { AMISensor.READ_MODE_EVENT,
+				AMISensor.READ_MODE_POLLING, AMISensor.READ_MODE_CONTINUOUS };
+		final MemoryTransport[] transports = new MemoryTransport[SENSORS];
+		CheckedSensor[] sensors = new CheckedSensor[SENSORS];
+		AMISensorManager manager = new AMISensorManager(THREADS);
+		for (int i = 0; i < SENSORS; i++) {
+			transports[i] = new MemoryTransport();
+			sensors[i] = new CheckedSensor(transports[i]);
+			sensors[i].setReadMode(modes[i % modes.length]);
+			sensors[i].setReadInterval(i % modes.length == 0 ? 0 : 1);
+			manager.add(sensors[i]);
+			sensors[i].startSensor();
+		}
+
+		Thread[] feeders = new Thread[SENSORS];
+		for (int i = 0; i < SENSORS; i++) {
+			final MemoryTransport transport = transports[i];
+			feeders[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					byte[] sample = "2.36000v".getBytes();
+					for (int n = 0; n < SAMPLES; n++) {
+						transport.feed(sample);
+						if (n % 16 == 0) {
+							Thread.yield();
+						}
+					}
+				}
+			});
+			feeders[i].start();
+		}
+		for (Thread feeder : feeders) {
+			feeder.join();
+		}
+
+		long deadline = System.currentTimeMillis() + 10000;
+		boolean failed = false;
+		for (int i = 0; i < SENSORS; i++) {
+			while (sensors[i].getSequence() < SAMPLES
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			long got = sensors[i].getSequence();
+			boolean ok = got == SAMPLES && sensors[i].mMaxInside == 1;
+			System.out.println(String.format(
+					"sensor %d mode %d: samples %d/%d, max concurrent addData %d %s",
+					i, modes[i % modes.length], got, SAMPLES,
+					sensors[i].mMaxInside, ok ? "" : "FAILED"));
+			failed |= !ok;
+		}
+		manager.shutdown(1000);
+		System.out.println(failed ? "FAILED" : "OK");
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
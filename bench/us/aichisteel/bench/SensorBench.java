@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import us.aichisteel.amisensor.AMISensor;
+import us.aichisteel.amisensor.Ami30xEvk;
+import us.aichisteel.amisensor.LineSensor;
+import us.aichisteel.amisensor.MemoryTransport;
+import us.aichisteel.amisensor.NTSensor;
+import us.aichisteel.amisensor.NTSensor3Axis;
+import us.aichisteel.misc.AmiFft;
+import us.aichisteel.misc.AmiMultiFft;
+import us.aichisteel.misc.AmiStft;
+import us.aichisteel.misc.AmiWindow;
+import us.aichisteel.misc.Axis3RingBuffer;
+import us.aichisteel.misc.DoubleRingBuffer;
+import us.aichisteel.misc.FFT4g;
+import us.aichisteel.misc.FFT4gFloat;
+import us.aichisteel.misc.GoertzelBank;
+
+/**
+ * Benchmarks for the parsing, history and FFT paths. The sensor classes
+ * are created with a MemoryTransport and no Context, so this runs on a
+ * desktop JVM with android.jar and the Physicaloid library on the class
+ * path, e.g.
+ *
+ * java -cp bin/classes:bench-classes:android.jar:physicaloid.jar
+ *     us.aichisteel.bench.SensorBench [filter]
+ *
+ * An optional argument runs only the benchmarks whose name contains it.
+ */
+public class SensorBench {
+	private static final int READ_SIZE = 4096; // same as the read loop
+	private static final int[] HISTORY_SIZES = { 1000, 15000, 75000 };
+	private static String sFilter = null;
+
+	public static void main(String args[]) {
+		if (args.length > 0) {
+			sFilter = args[0];
+		}
+		Bench.header();
+		benchParsers();
+		benchHistory();
+		benchFft();
+		benchTones();
+		benchSpectra();
+	}
+
+	private static void run(String name, Bench.Task task) {
+		if (sFilter == null || name.contains(sFilter)) {
+			Bench.measure(name, task);
+		}
+	}
+
+	/* -------- addData -------- */
+
+	private static void benchParsers() {
+		Random r = new Random(0);
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 1 << 16) {
+			sb.append(String.format("%.5fv", 2.36 + r.nextGaussian() * 0.01));
+		}
+		final NTSensor nt = new NTSensor(null, null, new MemoryTransport());
+		runParser("addData.NTSensor", nt, sb.toString().getBytes());
+
+		sb.setLength(0);
+		while (sb.length() < 1 << 16) {
+			sb.append(String.format("%.5f,%.5f,%.5f\n", 2.6 + r.nextGaussian()
+					* 0.01, 2.6 + r.nextGaussian() * 0.01, 2.6 + r
+					.nextGaussian() * 0.01));
+		}
+		NTSensor3Axis nt3 = new NTSensor3Axis(null, null, new MemoryTransport());
+		runParser("addData.NTSensor3Axis", nt3, sb.toString().getBytes());
+
+		sb.setLength(0);
+		while (sb.length() < 1 << 16) {
+			sb.append(String.format("%d,%d,%d,\r\n", 2048 + r.nextInt(200),
+					2048 + r.nextInt(200), 2048 + r.nextInt(200)));
+		}
+		Ami30xEvk evk = new Ami30xEvk(null, null, new MemoryTransport());
+		runParser("addData.Ami30xEvk", evk, sb.toString().getBytes());
+
+		// one LineSensor frame is '|' followed by 16ch x 3 axis values
+		sb.setLength(0);
+		while (sb.length() < 1 << 16) {
+			sb.append('|');
+			for (int i = 0; i < 48; i++) {
+				sb.append(r.nextInt(4000) - 2000);
+				sb.append(i < 47 ? ',' : '\r');
+			}
+		}
+		LineSensor line = new LineSensor(null, null, new MemoryTransport());
+		runParser("addData.LineSensor", line, sb.toString().getBytes());
+	}
+
+	private static void runParser(String name, final AMISensor sensor,
+			byte[] stream) {
+		// split the stream into read-sized chunks like the read loop does
+		final byte[] data = stream;
+		final byte[] rbuf = new byte[READ_SIZE];
+		run(name + " (4096B read)", new Bench.Task() {
+			int pos = 0;
+
+			@Override
+			public void run() {
+				int len = Math.min(READ_SIZE, data.length - pos);
+				System.arraycopy(data, pos, rbuf, 0, len);
+				sensor.addData(rbuf, len);
+				pos += len;
+				if (pos >= data.length) {
+					pos = 0;
+				}
+			}
+		});
+	}
+
+	/* -------- history -------- */
+
+	private static void benchHistory() {
+		for (final int size : HISTORY_SIZES) {
+			final DoubleRingBuffer ring = new DoubleRingBuffer(size);
+			run("history.DoubleRingBuffer.add size=" + size, new Bench.Task() {
+				double v = 0;
+
+				@Override
+				public void run() {
+					ring.add(v);
+					v += 1;
+				}
+			});
+			final Axis3RingBuffer ring3 = new Axis3RingBuffer(size);
+			run("history.Axis3RingBuffer.add size=" + size, new Bench.Task() {
+				double v = 0;
+
+				@Override
+				public void run() {
+					ring3.add(v, v, v);
+					v += 1;
+				}
+			});
+			final double[] axis = new double[size];
+			run("history.Axis3RingBuffer.copyTo(axis) size=" + size,
+					new Bench.Task() {
+						@Override
+						public void run() {
+							Bench.sink = ring3.copyTo(Axis3RingBuffer.AXIS_Y,
+									axis);
+						}
+					});
+		}
+
+		for (final int size : HISTORY_SIZES) {
+			final NTSensor3Axis nt3 = new NTSensor3Axis(null, null,
+					new MemoryTransport());
+			nt3.setMaxTime((double) size / nt3.getOdr());
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < size; i++) {
+				sb.append("2.61,2.62,2.63\n");
+			}
+			byte[] b = sb.toString().getBytes();
+			nt3.addData(b, b.length);
+			final double[] dst = new double[size];
+			run("getData(axis,double[]) size=" + size, new Bench.Task() {
+				@Override
+				public void run() {
+					Bench.sink = nt3.getData(0, dst);
+				}
+			});
+			run("getData(axis) List size=" + size, new Bench.Task() {
+				@Override
+				public void run() {
+					List<Double> l = nt3.getData(0);
+					Bench.sink = l.size();
+				}
+			});
+			run("getPowerData(double[]) size=" + size, new Bench.Task() {
+				@Override
+				public void run() {
+					Bench.sink = nt3.getPowerData(dst);
+				}
+			});
+			run("getPowerData() List size=" + size, new Bench.Task() {
+				@Override
+				public void run() {
+					List<Double> l = nt3.getPowerData();
+					Bench.sink = l.size();
+				}
+			});
+		}
+	}
+
+	/* -------- FFT -------- */
+
+	private static void benchFft() {
+		Random r = new Random(0);
+		for (int n = 256; n <= 1 << 20; n <<= 2) {
+			final double[] src = new double[n];
+			for (int i = 0; i < n; i++) {
+				src[i] = Math.sin(i * 0.1) + r.nextGaussian() * 0.1;
+			}
+			final double[] a = new double[n];
+			final FFT4g fft = new FFT4g(n);
+			run("FFT4g.rdft n=" + n, new Bench.Task() {
+				@Override
+				public void run() {
+					System.arraycopy(src, 0, a, 0, src.length);
+					fft.rdft(1, a);
+					Bench.sink = a[0];
+				}
+			});
+			final float[] srcf = new float[n];
+			for (int i = 0; i < n; i++) {
+				srcf[i] = (float) src[i];
+			}
+			final float[] af = new float[n];
+			final FFT4gFloat fftf = new FFT4gFloat(n);
+			run("FFT4gFloat.rdft n=" + n, new Bench.Task() {
+				@Override
+				public void run() {
+					System.arraycopy(srcf, 0, af, 0, srcf.length);
+					fftf.rdft(1, af);
+					Bench.sink = af[0];
+				}
+			});
+
+			final List<Double> list = new ArrayList<Double>(n + 1);
+			for (int i = 0; i <= n; i++) {
+				list.add(src[i % n]);
+			}
+			final AmiFft ami = new AmiFft(n, 0.004);
+			run("AmiFft.AmiFftCalc n=" + n, new Bench.Task() {
+				@Override
+				public void run() {
+					ami.AmiFftCalc(list);
+					Bench.sink = ami.getLevel().size();
+				}
+			});
+			final double[] level = new double[ami.getNum()];
+			run("AmiFft.AmiFftCalc(double[]) n=" + n, new Bench.Task() {
+				@Override
+				public void run() {
+					ami.AmiFftCalc(src, 0, src.length, level);
+					Bench.sink = level[0];
+				}
+			});
+		}
+	}
+
+	/* -------- tone tracking -------- */
+
+	private static void benchTones() {
+		// one second of NTSensor samples per update, 4 tones of interest
+		final int chunk = NTSensor.NTSENSOR_SPS;
+		final double[] src = new double[chunk * 64];
+		Random r = new Random(0);
+		for (int i = 0; i < src.length; i++) {
+			src[i] = Math.sin(2 * Math.PI * 50 * i / chunk) + r.nextGaussian()
+					* 0.1;
+		}
+		final GoertzelBank bank = new GoertzelBank(chunk);
+		for (double f : new double[] { 25, 50, 60, 100 }) {
+			bank.addTone(f, 1024);
+		}
+		run("GoertzelBank.push 4 tones (250 samples)", new Bench.Task() {
+			int pos = 0;
+
+			@Override
+			public void run() {
+				Bench.sink = bank.push(src, pos, chunk);
+				pos = (pos + chunk) % src.length;
+			}
+		});
+		final AmiFft fft = new AmiFft(1024, 1.0 / chunk);
+		fft.setHopSize(chunk);
+		run("AmiFft.push n=1024 hop=250 (250 samples)", new Bench.Task() {
+			int pos = 0;
+
+			@Override
+			public void run() {
+				Bench.sink = fft.push(src, pos, chunk);
+				pos = (pos + chunk) % src.length;
+			}
+		});
+		final AmiStft stft = new AmiStft(1024, chunk, AmiWindow.WINDOW_HANN,
+				256);
+		stft.setHopSize(chunk);
+		run("AmiStft.push n=1024 hop=250 (250 samples)", new Bench.Task() {
+			int pos = 0;
+
+			@Override
+			public void run() {
+				Bench.sink = stft.push(src, pos, chunk);
+				pos = (pos + chunk) % src.length;
+			}
+		});
+	}
+
+	private static void benchSpectra() {
+		// all 48 LineSensor series, serially and on every core
+		final int channels = LineSensor.FRAME_SIZE;
+		final int n = 1024;
+		final double[][] data = new double[channels][n];
+		Random r = new Random(0);
+		for (int ch = 0; ch < channels; ch++) {
+			for (int i = 0; i < n; i++) {
+				data[ch][i] = r.nextGaussian();
+			}
+		}
+		final double[][] level = new double[channels][n / 2];
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads : new int[] { 1, cores }) {
+			final AmiMultiFft multi = new AmiMultiFft(n, 0.001, threads);
+			run("AmiMultiFft.calc " + channels + "ch n=" + n + " threads="
+					+ threads, new Bench.Task() {
+				@Override
+				public void run() {
+					multi.calc(data, channels, 0, n, level);
+					Bench.sink = level[channels - 1][1];
+				}
+			});
+			multi.shutdown();
+		}
+	}
+}
@@ -18,28 +18,67 @@ package us.aichisteel.amisensor;
 
 import java.io.IOException;
 
+import us.aichisteel.misc.SampleSink;
+
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.hardware.usb.UsbManager;
 
-import com.physicaloid.lib.Physicaloid;
-import com.physicaloid.lib.usb.driver.uart.UartConfig;
-
 public abstract class AMISensor {
 
 	protected Context mContext;
 	protected AMISensorInterface sensorListener = null;
-	protected Physicaloid mSerial;
+	protected SensorTransport mSerial;
 	protected int iBaudRate;
 	protected static final String CR = "\r";
 	protected String stTransmit = CR;
-	protected boolean mRunningMainLoop;
+	protected volatile boolean mRunningMainLoop;
 	protected String stStartCommand;
 	protected String stStopCommand;
 	protected boolean isStartSensor = false;
 
+	// READ_MODE_POLLING: read, then sleep for the read interval.
+	// READ_MODE_EVENT: sleep until the driver reports received data, or at
+	// most the read interval.
+	// READ_MODE_CONTINUOUS: read back to back and only yield when the driver
+	// buffer is empty. Lowest latency at the cost of a busy core.
+	public final static int READ_MODE_POLLING = 0;
+	public final static int READ_MODE_EVENT = 1;
+	public final static int READ_MODE_CONTINUOUS = 2;
+	public final static int DEFAULT_READ_INTERVAL = 100; // [ms]
+	protected volatile int mReadMode = READ_MODE_POLLING;
+	protected volatile int mReadInterval = DEFAULT_READ_INTERVAL;
+	private final Object mReadSignal = new Object();
+	private boolean mDataAvailable = false;
+
+	// time spent waiting for each read that returned data [ns]
+	private volatile long mLastReadWait = 0;
+	private volatile long mMaxReadWait = 0;
+	private volatile long mTotalReadWait = 0;
+	private volatile long mReadCount = 0;
+
+	private AMISensorBatch mBatch = new AMISensorBatch();
+	private long mWaitStart = 0;
+	private volatile CaptureWriter mCapture = null;
+
+	private static final class SinkBinding {
+		final int channel;
+		final SampleSink sink;
+
+		SinkBinding(int channel, SampleSink sink) {
+			this.channel = channel;
+			this.sink = sink;
+		}
+	}
+
+	// copied on change, so the read loop iterates without locking
+	private volatile SinkBinding[] mSinks = new SinkBinding[0];
+
+	// set while the sensor is read by an AMISensorManager
+	volatile AMISensorManager.ManagedSensor mManaged = null;
+
 	public final static String USB_PERMISSION = "us.aichisteel.amisensor.USB_PERMISSION";
 
 	abstract protected void initData();
@@ -50,25 +89,140 @@ public abstract class AMISensor {
 
 	abstract public void clearOffset();
 
+	/*
+	 * Sequence number of the next sample to be parsed. Sensors that keep a
+	 * sample history override this and fillBatch().
+	 */
+	public long getSequence() {
+		return 0;
+	}
+
+	/*
+	 * Copies the samples from sequence number seq onwards into the batch.
+	 */
+	protected void fillBatch(long seq, AMISensorBatch batch) {
+		batch.set(seq, 0);
+	}
+
 	public AMISensor(int baudrate, String start, String stop, Context c,
 			AMISensorInterface listener) {
+		this(baudrate, start, stop, c, listener, new PhysicaloidTransport(c));
+	}
+
+	/*
+	 * The context may be null when the transport is not a USB device; no
+	 * attach/detach notifications are delivered in that case.
+	 */
+	public AMISensor(int baudrate, String start, String stop, Context c,
+			AMISensorInterface listener, SensorTransport transport) {
 		iBaudRate = baudrate;
 		stStartCommand = start;
 		stStopCommand = stop;
 		mRunningMainLoop = false;
-		mSerial = new Physicaloid(c);
+		mSerial = transport;
 		mContext = c;
 
-		IntentFilter filter = new IntentFilter();
-		filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
-		filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
-		mContext.registerReceiver(mUsbReceiver, filter);
+		if (mContext != null) {
+			mUsbReceiver = createUsbReceiver();
+			IntentFilter filter = new IntentFilter();
+			filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+			filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+			mContext.registerReceiver(mUsbReceiver, filter);
+		}
 		this.sensorListener = listener;
 	}
 	
 	public void setStartCommand(String start) {
 		stStartCommand = start;
 	}
+
+	public int getReadMode() {
+		return mReadMode;
+	}
+
+	public void setReadMode(int mode) {
+		if (mode == mReadMode) {
+			return;
+		}
+		mReadMode = mode;
+		if (mSerial.isOpened()) {
+			updateReadListener();
+		}
+		signalDataAvailable();
+	}
+
+	public int getReadInterval() {
+		return mReadInterval;
+	}
+
+	public void setReadInterval(int ms) {
+		if (ms >= 0) {
+			mReadInterval = ms;
+		}
+	}
+
+	/*
+	 * Records every raw read chunk to the given open capture, or stops
+	 * recording when null. The caller closes the capture.
+	 */
+	public void setCapture(CaptureWriter capture) {
+		mCapture = capture;
+	}
+
+	public CaptureWriter getCapture() {
+		return mCapture;
+	}
+
+	/*
+	 * Feeds the new samples of one batch channel (see fillBatch) to sink
+	 * after every read. The sink runs on the read thread.
+	 */
+	public synchronized void addSampleSink(int channel, SampleSink sink) {
+		SinkBinding[] sinks = new SinkBinding[mSinks.length + 1];
+		System.arraycopy(mSinks, 0, sinks, 0, mSinks.length);
+		sinks[mSinks.length] = new SinkBinding(channel, sink);
+		mSinks = sinks;
+	}
+
+	/*
+	 * Detaches sink from every channel it was added to.
+	 */
+	public synchronized void removeSampleSink(SampleSink sink) {
+		int n = 0;
+		SinkBinding[] sinks = new SinkBinding[mSinks.length];
+		for (SinkBinding b : mSinks) {
+			if (b.sink != sink) {
+				sinks[n++] = b;
+			}
+		}
+		SinkBinding[] trimmed = new SinkBinding[n];
+		System.arraycopy(sinks, 0, trimmed, 0, n);
+		mSinks = trimmed;
+	}
+
+	public long getLastReadWaitTime() {
+		return mLastReadWait;
+	}
+
+	public long getMaxReadWaitTime() {
+		return mMaxReadWait;
+	}
+
+	public long getAverageReadWaitTime() {
+		long count = mReadCount;
+		return count == 0 ? 0 : mTotalReadWait / count;
+	}
+
+	public long getReadCount() {
+		return mReadCount;
+	}
+
+	public void resetReadStatistics() {
+		mLastReadWait = 0;
+		mMaxReadWait = 0;
+		mTotalReadWait = 0;
+		mReadCount = 0;
+	}
 	
 	public void initializeSensor() {
 		openUsbSerial();
@@ -76,9 +230,12 @@ public abstract class AMISensor {
 
 	public void finalizeSensor() {
 		closeUsbSerial();
-		mContext.unregisterReceiver(mUsbReceiver);
+		if (mContext != null) {
+			mContext.unregisterReceiver(mUsbReceiver);
+		}
 		this.sensorListener = null;
 		mRunningMainLoop = false;
+		signalDataAvailable();
 	}
 
 	public void startSensor() {
@@ -106,26 +263,35 @@ public abstract class AMISensor {
 		return mSerial.isOpened();
 	}
 	
-	BroadcastReceiver mUsbReceiver = new BroadcastReceiver() {
-		public void onReceive(Context context, Intent intent) {
-			String action = intent.getAction();
-			if ( UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action) || USB_PERMISSION.equals(action) ) {
-				if (sensorListener != null) {
-					sensorListener.attachedSensor();
-				}
-			} else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
-				closeUsbSerial();
-				if (sensorListener != null) {
-					sensorListener.detachedSensor();
+	BroadcastReceiver mUsbReceiver = null;
+
+	private BroadcastReceiver createUsbReceiver() {
+		return new BroadcastReceiver() {
+			public void onReceive(Context context, Intent intent) {
+				String action = intent.getAction();
+				if ( UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action) || USB_PERMISSION.equals(action) ) {
+					if (sensorListener != null) {
+						sensorListener.attachedSensor();
+					}
+				} else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
+					closeUsbSerial();
+					if (sensorListener != null) {
+						sensorListener.detachedSensor();
+					}
 				}
 			}
-		}
-	};
+		};
+	}
 
 	protected void mainloop() {
 		mRunningMainLoop = true;
-		new Thread(mLoop).start();
-
+		mWaitStart = System.nanoTime();
+		AMISensorManager.ManagedSensor managed = mManaged;
+		if (managed != null) {
+			managed.start();
+		} else {
+			new Thread(mLoop).start();
+		}
 	}
 
 	protected Runnable mLoop = new Runnable() {
@@ -135,19 +301,10 @@ public abstract class AMISensor {
 			byte[] rbuf = new byte[4096];
 			for (;;) {
 
-				len = read(rbuf);
-				if (len > 0) {
-					addData(rbuf, len);
-					try {
-						sensorListener.dataReady();
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				len = readOnce(rbuf);
+				if (len < rbuf.length) {
+					// a full buffer means more data is already pending
+					waitForData(len);
 				}
 				if (!mRunningMainLoop) {
 					return;
@@ -156,6 +313,102 @@ public abstract class AMISensor {
 		}
 	};
 
+	/*
+	 * One turn of the read loop: reads once and hands the data to the
+	 * sensor and the listener. Returns the number of bytes read.
+	 */
+	int readOnce(byte[] rbuf) {
+		int len = read(rbuf);
+		if (len > 0) {
+			updateReadStatistics(System.nanoTime() - mWaitStart);
+			CaptureWriter capture = mCapture;
+			if (capture != null) {
+				capture.write(rbuf, 0, len);
+			}
+			long seq = getSequence();
+			addData(rbuf, len);
+			try {
+				AMISensorInterface listener = sensorListener;
+				boolean batchListener = listener instanceof AMISensorBatchInterface;
+				SinkBinding[] sinks = mSinks;
+				if ((batchListener || sinks.length > 0) && getSequence() != seq) {
+					fillBatch(seq, mBatch);
+					for (SinkBinding b : sinks) {
+						if (b.channel < mBatch.getChannels()) {
+							b.sink.push(mBatch.getData(b.channel), 0,
+									mBatch.getCount());
+						}
+					}
+					if (batchListener) {
+						((AMISensorBatchInterface) listener).dataBatch(mBatch);
+					}
+				}
+				listener.dataReady();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			mWaitStart = System.nanoTime();
+		}
+		return len;
+	}
+
+	private void waitForData(int len) {
+		try {
+			switch (mReadMode) {
+			case READ_MODE_EVENT:
+				synchronized (mReadSignal) {
+					if (!mDataAvailable && mRunningMainLoop) {
+						mReadSignal.wait(mReadInterval > 0 ? mReadInterval : 0);
+					}
+					mDataAvailable = false;
+				}
+				break;
+			case READ_MODE_CONTINUOUS:
+				if (len <= 0) {
+					Thread.yield();
+				}
+				break;
+			default:
+				Thread.sleep(mReadInterval);
+				break;
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void signalDataAvailable() {
+		synchronized (mReadSignal) {
+			mDataAvailable = true;
+			mReadSignal.notifyAll();
+		}
+		AMISensorManager.ManagedSensor managed = mManaged;
+		if (managed != null) {
+			managed.wake();
+		}
+	}
+
+	private void updateReadStatistics(long wait) {
+		mLastReadWait = wait;
+		if (wait > mMaxReadWait) {
+			mMaxReadWait = wait;
+		}
+		mTotalReadWait += wait;
+		mReadCount++;
+	}
+
+	private SensorTransport.ReadListener mReadListener = new SensorTransport.ReadListener() {
+		@Override
+		public void onRead(int size) {
+			signalDataAvailable();
+		}
+	};
+
+	protected void updateReadListener() {
+		mSerial.setReadListener(mReadMode == READ_MODE_EVENT ? mReadListener
+				: null);
+	}
+
 	protected void openUsbSerial() {
 		if (mSerial == null) {
 			return;
@@ -164,11 +417,8 @@ public abstract class AMISensor {
 		if (!mSerial.isOpened()) {
 			if (!mSerial.open()) {
 			} else {
-				mSerial.setConfig(new UartConfig(iBaudRate,
-						UartConfig.DATA_BITS8, UartConfig.STOP_BITS1,
-						UartConfig.PARITY_NONE, false, false));
-				
-				
+				mSerial.setConfig(iBaudRate);
+				updateReadListener();
 			}
 		}
 	}
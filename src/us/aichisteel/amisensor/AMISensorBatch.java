@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+/**
+ * Samples parsed from one read, one primitive array per channel. Sample
+ * i of every channel has the sequence number getStartSequence() + i. The
+ * batch is reused for the next read, so listeners must copy what they
+ * keep.
+ */
+public class AMISensorBatch {
+	private static final String TAG = AMISensorBatch.class.getSimpleName();
+	private long mStart = 0;
+	private int mCount = 0;
+	private double[][] mData = new double[0][];
+
+	public long getStartSequence() {
+		return mStart;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public int getChannels() {
+		return mData.length;
+	}
+
+	// valid from index 0 to getCount() - 1
+	public double[] getData(int channel) {
+		return mData[channel];
+	}
+
+	/*
+	 * Makes room for count samples on each channel; only grows.
+	 */
+	void prepare(int channels, int count) {
+		if (mData.length != channels) {
+			mData = new double[channels][];
+		}
+		for (int ch = 0; ch < channels; ch++) {
+			if (mData[ch] == null || mData[ch].length < count) {
+				mData[ch] = new double[count];
+			}
+		}
+	}
+
+	void set(long start, int count) {
+		mStart = start;
+		mCount = count;
+	}
+}
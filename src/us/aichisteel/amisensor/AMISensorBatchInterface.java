@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+/**
+ * Listener that also receives the samples parsed in each read. dataBatch()
+ * is called on the read thread before dataReady().
+ */
+public interface AMISensorBatchInterface extends AMISensorInterface {
+	public void dataBatch(AMISensorBatch batch);
+}
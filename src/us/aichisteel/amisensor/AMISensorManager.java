@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the read loops of many sensors on a small shared thread pool
+ * instead of one thread per sensor. Each turn reads a sensor once and then
+ * queues it again behind the others, so sensors are served round robin.
+ * Between turns a sensor waits according to its read mode, without
+ * holding a thread.
+ *
+ * Sensors are added before startSensor(); startSensor() then schedules
+ * the sensor here, and finalizeSensor() or remove() ends its turns.
+ */
+public class AMISensorManager {
+	private static final String TAG = AMISensorManager.class.getSimpleName();
+	private final static int READ_SIZE = 4096;
+
+	private final ScheduledThreadPoolExecutor mExecutor;
+	private final List<ManagedSensor> mSensors = new CopyOnWriteArrayList<ManagedSensor>();
+
+	public AMISensorManager() {
+		this(Math.min(2, Runtime.getRuntime().availableProcessors()));
+	}
+
+	public AMISensorManager(int threads) {
+		mExecutor = new ScheduledThreadPoolExecutor(Math.max(1, threads),
+				new ThreadFactory() {
+					private int mCount = 0;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread t = new Thread(r, TAG + "-" + (++mCount));
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/*
+	 * Returns false if the sensor is already managed.
+	 */
+	public boolean add(AMISensor sensor) {
+		if (sensor.mManaged != null) {
+			return false;
+		}
+		ManagedSensor managed = new ManagedSensor(sensor);
+		sensor.mManaged = managed;
+		mSensors.add(managed);
+		if (sensor.mRunningMainLoop) {
+			managed.start();
+		}
+		return true;
+	}
+
+	/*
+	 * Stops reading the sensor. A later startSensor() runs it on its own
+	 * thread again.
+	 */
+	public void remove(AMISensor sensor) {
+		ManagedSensor managed = find(sensor);
+		if (managed != null) {
+			mSensors.remove(managed);
+			managed.stop();
+			sensor.mManaged = null;
+			sensor.mRunningMainLoop = false;
+		}
+	}
+
+	public int getSensorCount() {
+		return mSensors.size();
+	}
+
+	public void startAll() {
+		for (ManagedSensor managed : mSensors) {
+			managed.mSensor.startSensor();
+		}
+	}
+
+	public void stopAll() {
+		for (ManagedSensor managed : mSensors) {
+			managed.mSensor.stopSensor();
+		}
+	}
+
+	/*
+	 * Removes all sensors and waits up to timeout ms for turns in progress
+	 * to finish. Returns true if the pool has terminated.
+	 */
+	public boolean shutdown(long timeout) {
+		for (ManagedSensor managed : mSensors) {
+			remove(managed.mSensor);
+		}
+		mExecutor.shutdown();
+		try {
+			return mExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public long getByteCount(AMISensor sensor) {
+		ManagedSensor managed = find(sensor);
+		return managed == null ? 0 : managed.mBytes;
+	}
+
+	public long getSampleCount(AMISensor sensor) {
+		ManagedSensor managed = find(sensor);
+		return managed == null ? 0 : managed.mSamples;
+	}
+
+	/*
+	 * Bytes read per second since the sensor was added or its statistics
+	 * were last reset.
+	 */
+	public double getByteRate(AMISensor sensor) {
+		ManagedSensor managed = find(sensor);
+		return managed == null ? 0 : managed.rate(managed.mBytes);
+	}
+
+	public double getSampleRate(AMISensor sensor) {
+		ManagedSensor managed = find(sensor);
+		return managed == null ? 0 : managed.rate(managed.mSamples);
+	}
+
+	public void resetStatistics(AMISensor sensor) {
+		ManagedSensor managed = find(sensor);
+		if (managed != null) {
+			managed.mBytes = 0;
+			managed.mSamples = 0;
+			managed.mSince = System.nanoTime();
+		}
+	}
+
+	private ManagedSensor find(AMISensor sensor) {
+		ManagedSensor managed = sensor.mManaged;
+		return managed != null && managed.mManager == this ? managed : null;
+	}
+
+	final class ManagedSensor implements Runnable {
+		final AMISensor mSensor;
+		final AMISensorManager mManager = AMISensorManager.this;
+		private final byte[] mBuffer = new byte[READ_SIZE];
+		// the one queued turn; null while parked or while mRunning
+		private ScheduledFuture<?> mPending = null;
+		private boolean mActive = false;
+		private boolean mRunning = false; // a turn is inside run()
+		private boolean mSignaled = false;
+		private volatile boolean mStopped = false;
+		volatile long mBytes = 0;
+		volatile long mSamples = 0;
+		volatile long mSince = System.nanoTime();
+
+		ManagedSensor(AMISensor sensor) {
+			mSensor = sensor;
+		}
+
+		synchronized void start() {
+			if (mActive || mStopped) {
+				return;
+			}
+			mActive = true;
+			mSignaled = false;
+			mPending = mExecutor.schedule(this, 0, TimeUnit.MILLISECONDS);
+		}
+
+		synchronized void stop() {
+			mStopped = true;
+			if (mPending != null) {
+				mPending.cancel(false);
+			}
+		}
+
+		/*
+		 * Data arrived: bring the next turn forward. Only a turn that has
+		 * not started is replaced, so at most one turn of a sensor runs at
+		 * a time and its addData() keeps a single writer.
+		 */
+		synchronized void wake() {
+			if (!mActive || mStopped) {
+				return;
+			}
+			if (mRunning) {
+				mSignaled = true; // the turn in progress schedules at once
+			} else if (mPending == null || mPending.cancel(false)) {
+				mPending = mExecutor.schedule(this, 0, TimeUnit.MILLISECONDS);
+			} else {
+				mSignaled = true; // started, but not yet marked running
+			}
+		}
+
+		double rate(long count) {
+			long elapsed = System.nanoTime() - mSince;
+			return elapsed <= 0 ? 0 : count * 1e9 / elapsed;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (mRunning) {
+					return; // not expected: only one turn is ever queued
+				}
+				mRunning = true;
+				mPending = null;
+			}
+			int len = 0;
+			if (mSensor.mRunningMainLoop && !mStopped) {
+				long seq = mSensor.getSequence();
+				try {
+					len = mSensor.readOnce(mBuffer);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					mSensor.mRunningMainLoop = false; // as if its thread died
+					synchronized (this) {
+						mActive = false;
+						mRunning = false;
+					}
+					return;
+				}
+				if (len > 0) {
+					mBytes += len;
+					mSamples += mSensor.getSequence() - seq;
+				}
+			}
+			synchronized (this) {
+				mRunning = false;
+				if (mStopped || !mSensor.mRunningMainLoop) {
+					mActive = false;
+					return;
+				}
+				boolean now = len >= mBuffer.length || mSignaled;
+				mSignaled = false;
+				if (now || mSensor.mReadMode == AMISensor.READ_MODE_CONTINUOUS) {
+					mPending = mExecutor.schedule(this, 0, TimeUnit.MILLISECONDS);
+				} else if (mSensor.mReadMode == AMISensor.READ_MODE_EVENT
+						&& mSensor.mReadInterval <= 0) {
+					mPending = null; // park until wake()
+				} else {
+					mPending = mExecutor.schedule(this, mSensor.mReadInterval,
+							TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	}
+}
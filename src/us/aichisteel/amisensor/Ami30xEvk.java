@@ -19,6 +19,14 @@ package us.aichisteel.amisensor;
 import java.util.ArrayList;
 import java.util.List;
 
+import us.aichisteel.misc.AmiMultiFft;
+import us.aichisteel.misc.AsciiNumberParser;
+import us.aichisteel.misc.Axis3RingBuffer;
+import us.aichisteel.misc.Decimator;
+import us.aichisteel.misc.RunningStatistics;
+import us.aichisteel.misc.SampleCursor;
+import us.aichisteel.misc.SampleSeries;
+import us.aichisteel.misc.SampleStatistics;
 import android.content.Context;
 import android.util.Log;
 
@@ -30,11 +38,15 @@ public class Ami30xEvk extends AMISensor {
 	private static final double DEFAULT_OFFSET = 0;
 	private int mMaxSize = 1000; //
 	private double[] mOffset = {DEFAULT_OFFSET,DEFAULT_OFFSET,DEFAULT_OFFSET};
-	private List<Double[]> mSensorData;
-	private StringBuilder mText = new StringBuilder();
+	private Axis3RingBuffer mSensorData;
+	private AsciiNumberParser mText = new AsciiNumberParser();
 	private double[] mLatestVoltage = mOffset.clone();
 	private int mAxisCounter = 0; // 0:X 1:Y 2:Z
-	private Double[] m3AxisData = new Double[3];
+	private Decimator mDecimator = new Decimator();
+	private SampleSeries[] mPlotViews = new SampleSeries[Axis3RingBuffer.CHANNEL_NUM];
+	private RunningStatistics[] mStatistics = new RunningStatistics[Axis3RingBuffer.CHANNEL_NUM];
+	private double[][] mSpectrumData = new double[Axis3RingBuffer.CHANNEL_NUM][0];
+	private double[] m3AxisData = new double[3];
 	
 	public class AmiInterference {
 		public double xy;
@@ -59,9 +71,17 @@ public class Ami30xEvk extends AMISensor {
 	
 	private AmiParam mParam = new AmiParam();
 	
-	public Ami30xEvk(Context c,AMISensorInterface listener) {
-		super(115200, "mes 0 " + String.valueOf(1000/DEFAULT_ODR), "mes 1", c,listener);
-		this.mSensorData  = new ArrayList<Double[]>();
+	public Ami30xEvk(Context c, AMISensorInterface listener) {
+		this(c, listener, new PhysicaloidTransport(c));
+	}
+
+	public Ami30xEvk(Context c, AMISensorInterface listener,
+			SensorTransport transport) {
+		super(115200, "mes 0 " + String.valueOf(1000/DEFAULT_ODR), "mes 1", c, listener, transport);
+		this.mSensorData  = new Axis3RingBuffer(mMaxSize);
+		for (int axis = 0; axis < Axis3RingBuffer.CHANNEL_NUM; axis++) {
+			mStatistics[axis] = new RunningStatistics(mMaxSize);
+		}
 	}
 	
 	public int getOdr(){
@@ -73,31 +93,136 @@ public class Ami30xEvk extends AMISensor {
 	}
 	
 	public List<Double[]> getData() {
-		return mSensorData;
+		int size = mSensorData.getCapacity();
+		double[][] data = new double[Axis3RingBuffer.AXIS_NUM][size];
+		int n = mSensorData.copyTo(data, 0, size);
+		List<Double[]> retData = new ArrayList<Double[]>(n);
+		for (int i = 0; i < n; i++) {
+			retData.add(new Double[] { data[0][i], data[1][i], data[2][i] });
+		}
+		return retData;
 	}
 
 	public List<Double> getData(int axis) {
-		List<Double> retData = new ArrayList<Double>();
-		for (Double[] data : mSensorData) {
-			retData.add(data.clone()[axis]);	// クローンを渡す
+		double[] data = new double[mSensorData.getCapacity()];
+		int n = mSensorData.copyTo(axis, data);
+		List<Double> retData = new ArrayList<Double>(n);
+		for (int i = 0; i < n; i++) {
+			retData.add(data[i]);
 		}
 		return retData;
 	}
 
-	private double calcPower(double x, double y, double z){
-		double ret;
-		ret = Math.sqrt(Math.pow(x,2)+Math.pow(y,2) + Math.pow(z, 2));
-		return ret;
+	public int getData(int axis, double[] dst) {
+		return mSensorData.copyTo(axis, dst);
 	}
-	
+
+	public int getDataSize() {
+		return mSensorData.size();
+	}
+
+	/*
+	 * Read-only views of one axis or of the magnitude without copying;
+	 * keep them and call refresh() before each use.
+	 */
+	public SampleSeries getDataView(int axis) {
+		return mSensorData.newView(axis);
+	}
+
+	public SampleSeries getPowerView() {
+		return mSensorData.newMagnitudeView();
+	}
+
+	/*
+	 * Statistics of one axis (or Axis3RingBuffer.AXIS_POWER) since the
+	 * sensor was started, and over the retained history window; updated
+	 * per sample, so these only copy a few fields.
+	 */
+	public SampleStatistics getSessionStatistics(int axis, SampleStatistics out) {
+		return mStatistics[axis].getSession(out);
+	}
+
+	public SampleStatistics getWindowStatistics(int axis, SampleStatistics out) {
+		return mStatistics[axis].getWindow(out);
+	}
+
+	/*
+	 * Reduces the history of one axis (or Axis3RingBuffer.AXIS_POWER) to
+	 * at most targetPoints points for plotting (Decimator.MODE_MINMAX or
+	 * MODE_LTTB). outX receives the sample index counted from the oldest
+	 * retained sample. Returns the point count.
+	 */
+	public int getDownsampled(int axis, int targetPoints, int mode,
+			double[] outX, double[] outY) {
+		synchronized (mDecimator) {
+			if (mPlotViews[axis] == null) {
+				mPlotViews[axis] = mSensorData.newView(axis);
+			}
+			mPlotViews[axis].refresh();
+			return mDecimator.decimate(mPlotViews[axis], targetPoints, mode,
+					outX, outY);
+		}
+	}
+
+	/*
+	 * Spectra of the newest analyzer.getSize() samples of X, Y, Z and the
+	 * magnitude, written into level[0..3]. Returns true if fewer samples
+	 * are retained.
+	 */
+	public boolean getSpectra(AmiMultiFft analyzer, double[][] level) {
+		int n = analyzer.getSize();
+		synchronized (mSpectrumData) {
+			double[][] data = mSpectrumData;
+			if (data[0].length != n) {
+				for (int axis = 0; axis < Axis3RingBuffer.CHANNEL_NUM; axis++) {
+					data[axis] = new double[n];
+				}
+			}
+			if (mSensorData.copyChannelsTo(data, 0, n) < n) {
+				return true;
+			}
+			return analyzer.calc(data, Axis3RingBuffer.CHANNEL_NUM, 0, n, level);
+		}
+	}
+
+	/*
+	 * Copies the samples of all axes after the cursor position into
+	 * dst[0..2] and advances it. Each consumer thread keeps its own cursor.
+	 */
+	public int readData(SampleCursor cursor, double[][] dst, int off, int len) {
+		return mSensorData.read(cursor, dst, off, len);
+	}
+
+	@Override
+	public long getSequence() {
+		return mSensorData.getSequence();
+	}
+
+	@Override
+	protected void fillBatch(long seq, AMISensorBatch batch) {
+		long first = Math.max(seq, mSensorData.getFirstSequence());
+		int n = (int) (mSensorData.getSequence() - first);
+		batch.prepare(Axis3RingBuffer.CHANNEL_NUM, n);
+		for (int axis = 0; axis < Axis3RingBuffer.CHANNEL_NUM; axis++) {
+			mSensorData.copyFrom(first, axis, batch.getData(axis), 0, n);
+		}
+		batch.set(first, n);
+	}
+
 	public List<Double> getPowerData() {
-		List<Double> retData = new ArrayList<Double>();
-		for (Double[] data : mSensorData) {
-			retData.add(calcPower(data.clone()[0],data.clone()[1],data.clone()[2]));	// クローンを渡す
+		double[] data = new double[mSensorData.getCapacity()];
+		int n = getPowerData(data);
+		List<Double> retData = new ArrayList<Double>(n);
+		for (int i = 0; i < n; i++) {
+			retData.add(data[i]);
 		}
 		return retData;
 	}
 
+	public int getPowerData(double[] dst) {
+		return mSensorData.copyMagnitudeTo(dst, 0, dst.length);
+	}
+
 	public double[] getLatestVoltage(){
 		return mLatestVoltage;
 	}
@@ -109,6 +234,10 @@ public class Ami30xEvk extends AMISensor {
 	public void setMaxTime(double sec) {
 		if (sec > 0) {
 			mMaxSize = (int) (mOdr * sec);
+			mSensorData.setCapacity(mMaxSize);
+			for (int axis = 0; axis < Axis3RingBuffer.CHANNEL_NUM; axis++) {
+				mStatistics[axis].setWindow(mMaxSize);
+			}
 		}
 	}
 
@@ -193,40 +322,44 @@ public class Ami30xEvk extends AMISensor {
 	@Override
 	protected void initData() {
 		mSensorData.clear();
-		mText.setLength(0);
+		for (int axis = 0; axis < Axis3RingBuffer.CHANNEL_NUM; axis++) {
+			mStatistics[axis].reset();
+		}
+		mText.reset();
 		mAxisCounter = 0;
 	}
 
+	private void addStatistics() {
+		for (int axis = 0; axis < Axis3RingBuffer.AXIS_NUM; axis++) {
+			mStatistics[axis].add(m3AxisData[axis]);
+		}
+		mStatistics[Axis3RingBuffer.AXIS_POWER].add(mSensorData
+				.getLatest(Axis3RingBuffer.AXIS_POWER));
+	}
+
 	@Override
 	public void addData(byte[] rbuf, int len) {
 		for (int i = 0; i < len; i++) {
 			if (rbuf[i] == '\r') {
 				mAxisCounter=0;
-				mText.setLength(0);					
-				while (mSensorData.size() > mMaxSize) {
-					mSensorData.remove(0);
-				}					
-				
+				mText.reset();
 			} else if (rbuf[i] == ',') {
 				if(mAxisCounter<3){
-					try {
-						mLatestVoltage[mAxisCounter] = Double.parseDouble(mText.toString())-2048.0;
+					if (mText.isValid()) {
+						mLatestVoltage[mAxisCounter] = mText.doubleValue()-2048.0;
 						m3AxisData[mAxisCounter] = 1000.0 * (mLatestVoltage[mAxisCounter]-mOffset[mAxisCounter])/mParam.sens[mAxisCounter];
-					} catch (Exception e) {
+					} else {
 						Log.e("Ami30xEvk: ", "Wrong Input Stirng:" + mText);
 					}
 					if(mAxisCounter==2){
-						mSensorData.add(m3AxisData.clone());	// クローンを渡す。
+						mSensorData.add(m3AxisData);
+						addStatistics();
 					}
 					mAxisCounter++;
 				}
-				mText.setLength(0);
-			} else if (rbuf[i] >= '0' && rbuf[i] <= '9') {
-				mText.append((char) rbuf[i]);
-			} else if (rbuf[i] == '.') {
-				mText.append((char) rbuf[i]);
-			} else if (rbuf[i] == '-') {
-				mText.append((char) rbuf[i]);
+				mText.reset();
+			} else {
+				mText.append(rbuf[i]);
 			}
 		}
 	}
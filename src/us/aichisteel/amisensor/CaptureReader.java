@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Reads the records of a capture written by CaptureWriter, segment after
+ * segment, through read-only memory maps.
+ */
+public class CaptureReader {
+	private static final String TAG = CaptureReader.class.getSimpleName();
+
+	private final File mBase;
+	private int mSegmentIndex = -1;
+	private MappedByteBuffer mBuffer = null;
+	private long mStartMillis = 0;
+	private long mTime = 0;
+	private int mLength = 0;
+	private int mOffset = 0; // bytes of the current record already taken
+
+	public CaptureReader(File base) {
+		mBase = base;
+	}
+
+	/*
+	 * Starts again from the first record. Returns false if the first
+	 * segment cannot be read.
+	 */
+	public boolean rewind() {
+		mSegmentIndex = -1;
+		mBuffer = null;
+		mLength = 0;
+		mOffset = 0;
+		return openSegment(0);
+	}
+
+	/*
+	 * Capture start in ms since the epoch.
+	 */
+	public long getStartTime() {
+		return mStartMillis;
+	}
+
+	/*
+	 * Moves to the next record. Returns false at the end of the capture.
+	 */
+	public boolean next() {
+		if (mBuffer == null && mSegmentIndex < 0 && !rewind()) {
+			return false;
+		}
+		for (;;) {
+			if (mBuffer == null) {
+				return false;
+			}
+			// skip whatever is left of the current record
+			mBuffer.position(mBuffer.position() + (mLength - mOffset));
+			mLength = 0;
+			mOffset = 0;
+			if (mBuffer.remaining() >= CaptureWriter.RECORD_HEADER_SIZE) {
+				long time = mBuffer.getLong();
+				int len = mBuffer.getInt();
+				if (len > 0 && len <= mBuffer.remaining()) {
+					mTime = time;
+					mLength = len;
+					return true;
+				}
+			}
+			if (!openSegment(mSegmentIndex + 1)) {
+				mBuffer = null;
+				return false;
+			}
+		}
+	}
+
+	/*
+	 * Time of the current record in ns since the capture started.
+	 */
+	public long getTimestamp() {
+		return mTime;
+	}
+
+	public int getLength() {
+		return mLength;
+	}
+
+	/*
+	 * Bytes of the current record not yet taken by read().
+	 */
+	public int getRemaining() {
+		return mLength - mOffset;
+	}
+
+	/*
+	 * Copies up to len further bytes of the current record into dst.
+	 */
+	public int read(byte[] dst, int off, int len) {
+		int n = Math.min(len, mLength - mOffset);
+		if (n > 0) {
+			mBuffer.get(dst, off, n);
+			mOffset += n;
+		}
+		return n;
+	}
+
+	private boolean openSegment(int index) {
+		File f = CaptureWriter.getSegmentFile(mBase, index);
+		if (!f.exists()) {
+			return false;
+		}
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(f, "r");
+			MappedByteBuffer buffer = file.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (buffer.remaining() < CaptureWriter.HEADER_SIZE
+					|| buffer.getInt() != CaptureWriter.MAGIC
+					|| buffer.getInt() != CaptureWriter.VERSION
+					|| buffer.getInt() != index) {
+				Log.e(TAG, "not a capture segment: " + f);
+				return false;
+			}
+			mStartMillis = buffer.getLong();
+			mBuffer = buffer;
+			mSegmentIndex = index;
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (file != null) {
+				try {
+					file.close(); // the mapping stays valid
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import java.io.File;
+
+/**
+ * Transport that plays back a capture written by CaptureWriter. Each
+ * read returns at most one recorded chunk, so the sensor sees the same
+ * chunk boundaries as during the capture. In real time mode a chunk is
+ * released once its recorded time since open() has passed; otherwise
+ * chunks are returned as fast as they are read. Writes are discarded.
+ * With a read listener set (READ_MODE_EVENT) a callback announces each
+ * chunk once it may be read.
+ */
+public class CaptureReplayTransport implements SensorTransport {
+	private static final String TAG = CaptureReplayTransport.class.getSimpleName();
+	private final ReadNotifier mNotifier = new ReadNotifier(TAG);
+	private CaptureReader mReader;
+	private boolean mRealTime;
+	private boolean mLoop = false;
+	private boolean mOpened = false;
+	private boolean mFinished = false;
+	private boolean mPending = false; // current record not fully read yet
+	private long mStartTime;
+	private long mTimeOffset; // recorded time at which playback (re)started
+
+	public CaptureReplayTransport(File base, boolean realtime) {
+		mReader = new CaptureReader(base);
+		mRealTime = realtime;
+	}
+
+	public void setLoop(boolean loop) {
+		mLoop = loop;
+	}
+
+	public boolean isFinished() {
+		return mFinished;
+	}
+
+	@Override
+	public synchronized boolean open() {
+		if (!mReader.rewind()) {
+			return false;
+		}
+		mOpened = true;
+		mFinished = false;
+		mPending = false;
+		mStartTime = System.nanoTime();
+		mTimeOffset = 0;
+		scheduleNotify();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean close() {
+		mNotifier.cancel();
+		mOpened = false;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isOpened() {
+		return mOpened;
+	}
+
+	@Override
+	public synchronized int read(byte[] buf) {
+		if (!mOpened || !prepareChunk()) {
+			return 0;
+		}
+		if (timeUntilDue() > 0) {
+			scheduleNotify();
+			return 0;
+		}
+		int n = mReader.read(buf, 0, buf.length);
+		mPending = mReader.getRemaining() > 0;
+		scheduleNotify();
+		return n;
+	}
+
+	// moves to the next record unless one is pending; false at the end
+	private boolean prepareChunk() {
+		if (mFinished) {
+			return false;
+		}
+		if (!mPending) {
+			if (!mReader.next()) {
+				if (!mLoop || !mReader.rewind() || !mReader.next()) {
+					mFinished = true;
+					return false;
+				}
+				// the replayed capture starts over now
+				mStartTime = System.nanoTime();
+				mTimeOffset = mReader.getTimestamp();
+			}
+			mPending = true;
+		}
+		return true;
+	}
+
+	// ns until the pending record may be read
+	private long timeUntilDue() {
+		if (!mRealTime) {
+			return 0;
+		}
+		return mReader.getTimestamp() - mTimeOffset
+				- (System.nanoTime() - mStartTime);
+	}
+
+	// asks for the callback announcing the next chunk; called under the lock
+	private void scheduleNotify() {
+		if (!mOpened || !mNotifier.hasListener() || !prepareChunk()) {
+			return;
+		}
+		mNotifier.notifyAt(timeUntilDue(), mReader.getRemaining());
+	}
+
+	@Override
+	public int write(byte[] buf, int size) {
+		return size;
+	}
+
+	@Override
+	public boolean setConfig(int baudrate) {
+		return true;
+	}
+
+	@Override
+	public synchronized void setReadListener(ReadListener listener) {
+		mNotifier.setListener(listener);
+		scheduleNotify();
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+/**
+ * Records raw read chunks into memory-mapped segment files named
+ * base.000, base.001, ... Each segment starts with a header (magic,
+ * version, segment index, capture start in ms since the epoch) followed by
+ * records of (long ns since capture start, int length, bytes). A record
+ * with length 0 or the end of the file ends a segment.
+ *
+ * A write is a copy into the mapped segment; the next segment is created
+ * and mapped in the background while the current one fills, so the read
+ * loop does not wait for file I/O. Read back with CaptureReader.
+ */
+public class CaptureWriter {
+	private static final String TAG = CaptureWriter.class.getSimpleName();
+	final static int MAGIC = 0x414d4943; // "AMIC"
+	final static int VERSION = 1;
+	final static int HEADER_SIZE = 20;
+	final static int RECORD_HEADER_SIZE = 12;
+	private final static int PAGE_SIZE = 4096;
+	public final static int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final class Segment {
+		final RandomAccessFile file;
+		final MappedByteBuffer buffer;
+
+		Segment(RandomAccessFile file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	private final File mBase;
+	private final int mSegmentSize;
+	private ExecutorService mPreparer = null;
+	private Segment mSegment = null;
+	private Future<Segment> mNext = null;
+	private int mSegmentIndex = 0;
+	private long mStartNanos;
+	private long mStartMillis;
+	private long mRecords = 0;
+	private long mBytes = 0;
+	private boolean mFailed = false;
+
+	public CaptureWriter(File base) {
+		this(base, DEFAULT_SEGMENT_SIZE);
+	}
+
+	public CaptureWriter(File base, int segmentSize) {
+		mBase = base;
+		mSegmentSize = Math.max(segmentSize, HEADER_SIZE + RECORD_HEADER_SIZE
+				+ 4096);
+	}
+
+	static File getSegmentFile(File base, int index) {
+		return new File(base.getPath() + String.format(".%03d", index));
+	}
+
+	public synchronized boolean open() {
+		close();
+		mPreparer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, TAG);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		mStartNanos = System.nanoTime();
+		mStartMillis = System.currentTimeMillis();
+		mSegmentIndex = 0;
+		mRecords = 0;
+		mBytes = 0;
+		mFailed = false;
+		try {
+			mSegment = createSegment(0, mSegmentSize);
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+			return false;
+		}
+		prepareNext();
+		return true;
+	}
+
+	public synchronized boolean isOpened() {
+		return mSegment != null;
+	}
+
+	/*
+	 * Appends one chunk. Returns false if the capture is not open or has
+	 * failed; a failed capture stops recording but never throws into the
+	 * read loop.
+	 */
+	public synchronized boolean write(byte[] buf, int off, int len) {
+		if (mSegment == null || mFailed) {
+			return false;
+		}
+		long time = System.nanoTime() - mStartNanos;
+		try {
+			if (mSegment.buffer.remaining() < RECORD_HEADER_SIZE + len) {
+				nextSegment(RECORD_HEADER_SIZE + len);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "capture stopped: " + e);
+			mFailed = true;
+			return false;
+		}
+		MappedByteBuffer b = mSegment.buffer;
+		b.putLong(time);
+		b.putInt(len);
+		b.put(buf, off, len);
+		mRecords++;
+		mBytes += len;
+		return true;
+	}
+
+	public synchronized long getRecordCount() {
+		return mRecords;
+	}
+
+	public synchronized long getByteCount() {
+		return mBytes;
+	}
+
+	public synchronized int getSegmentCount() {
+		return mSegment == null ? 0 : mSegmentIndex + 1;
+	}
+
+	/*
+	 * Ends the capture and trims the last segment to its used size.
+	 */
+	public synchronized void close() {
+		if (mSegment != null) {
+			finishSegment(mSegment);
+			mSegment = null;
+		}
+		if (mNext != null) {
+			try {
+				Segment unused = mNext.get();
+				unused.file.close();
+			} catch (Exception e) {
+				// nothing was created
+			}
+			getSegmentFile(mBase, mSegmentIndex + 1).delete();
+			mNext = null;
+		}
+		if (mPreparer != null) {
+			mPreparer.shutdown();
+			mPreparer = null;
+		}
+	}
+
+	private void nextSegment(int needed) throws IOException {
+		final Segment done = mSegment;
+		mSegment = null;
+		// flushing and trimming may block, so leave it to the background
+		mPreparer.execute(new Runnable() {
+			@Override
+			public void run() {
+				finishSegment(done);
+			}
+		});
+		mSegmentIndex++;
+		Segment s = null;
+		try {
+			s = mNext.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.e(TAG, "segment not prepared: " + e.getCause());
+		}
+		mNext = null;
+		if (s == null || s.buffer.remaining() < needed) {
+			if (s != null) {
+				s.file.close();
+			}
+			s = createSegment(mSegmentIndex, Math.max(mSegmentSize,
+					HEADER_SIZE + needed));
+		}
+		mSegment = s;
+		prepareNext();
+	}
+
+	private void prepareNext() {
+		final int index = mSegmentIndex + 1;
+		mNext = mPreparer.submit(new Callable<Segment>() {
+			@Override
+			public Segment call() throws IOException {
+				return createSegment(index, mSegmentSize);
+			}
+		});
+	}
+
+	private Segment createSegment(int index, int size) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(getSegmentFile(mBase,
+				index), "rw");
+		try {
+			file.setLength(0);
+			MappedByteBuffer buffer = file.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, size);
+			// fault the pages in now rather than in the read loop
+			for (int i = 0; i < size; i += PAGE_SIZE) {
+				buffer.put(i, (byte) 0);
+			}
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(index);
+			buffer.putLong(mStartMillis);
+			return new Segment(file, buffer);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	private void finishSegment(Segment s) {
+		int used = s.buffer.position();
+		if (s.buffer.remaining() >= RECORD_HEADER_SIZE) {
+			s.buffer.putLong(0);
+			s.buffer.putInt(0); // end marker
+		}
+		try {
+			s.buffer.force();
+			s.file.getChannel().truncate(used);
+			s.file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -16,6 +16,12 @@
 
 package us.aichisteel.amisensor;
 
+import us.aichisteel.misc.AmiMultiFft;
+import us.aichisteel.misc.AsciiNumberParser;
+import us.aichisteel.misc.Decimator;
+import us.aichisteel.misc.FrameRingBuffer;
+import us.aichisteel.misc.SampleCursor;
+import us.aichisteel.misc.SampleSeries;
 import android.content.Context;
 
 public class LineSensor extends AMISensor {
@@ -35,10 +41,12 @@ public class LineSensor extends AMISensor {
 
 		public LineSensorData(LineSensorData s) {
 			super();
+			copyFrom(s);
+		}
+
+		public void copyFrom(LineSensorData s) {
 			for (int i = 0; i < 3; i++) {
-				for (int j = 0; j < 16; j++) {
-					mag[i][j] = s.mag[i][j];
-				}
+				System.arraycopy(s.mag[i], 0, mag[i], 0, 16);
 			}
 		}
 
@@ -61,12 +69,31 @@ public class LineSensor extends AMISensor {
 		}
 	}
 
-	private LineSensorData mSensorData;
-	private LineSensorData mOffsetData;
+	// the frame being parsed, on the read thread only; fields missing from
+	// a frame keep their last value
 	private LineSensorData mLastValue;
-	private StringBuilder mText = new StringBuilder();
+	private AsciiNumberParser mText = new AsciiNumberParser();
 	private int mChIndex = 0;
 	private int mAxisIndex = 0;
+	public final static int CH_NUM = 16;
+	public final static int AXIS_NUM = 3;
+	public final static int FRAME_SIZE = CH_NUM * AXIS_NUM;
+	private final static int DEFAULT_HISTORY_SIZE = 1000; // [frames]
+	// completed raw frames for the latest-value getters; read through the
+	// ring's validated copy, so a reader never sees a half-parsed frame
+	private FrameRingBuffer mLatest = new FrameRingBuffer(FRAME_SIZE, 2);
+	private double[] mRawFrame = new double[FRAME_SIZE];
+	// raw values subtracted from each frame, indexed like a frame; replaced
+	// as a whole, never modified
+	private volatile double[] mOffset = new double[FRAME_SIZE];
+	// offset-corrected frames, value (ch - 1) * AXIS_NUM + axis
+	private FrameRingBuffer mHistory = new FrameRingBuffer(FRAME_SIZE,
+			DEFAULT_HISTORY_SIZE);
+	private double[] mFrame = new double[FRAME_SIZE];
+	private Decimator mDecimator = new Decimator();
+	private SampleSeries[] mPlotViews = new SampleSeries[FRAME_SIZE];
+	private double[][] mSpectrumData = new double[FRAME_SIZE][0];
+	private double[] mSpectrumFrames = new double[0];
 	public final static int AXIS_ID_POWER = 0;
 	public final static int AXIS_ID_X = 1;
 	public final static int AXIS_ID_Y = 2;
@@ -74,9 +101,12 @@ public class LineSensor extends AMISensor {
 //	private int mAxisId = AXIS_ID_POWER;
 
 	public LineSensor(Context c, AMISensorInterface listener) {
-		super(1250000, "mes 0 200", "mes 1", c, listener);
-		mSensorData = new LineSensorData();
-		mOffsetData = new LineSensorData();
+		this(c, listener, new PhysicaloidTransport(c));
+	}
+
+	public LineSensor(Context c, AMISensorInterface listener,
+			SensorTransport transport) {
+		super(1250000, "mes 0 200", "mes 1", c, listener, transport);
 		mLastValue = new LineSensorData();
 	}
 /*
@@ -89,53 +119,162 @@ public class LineSensor extends AMISensor {
 	}
 */
 	public double getData(int ch, int axis) {
-		return mSensorData.getMag(ch, axis) - mOffsetData.getMag(ch, axis);
+		if (ch < 1 || ch > 16)
+			return 0;
+		int index = getFrameIndex(ch, axis);
+		double raw = mLatest.getSequence() == 0 ? 0 : mLatest.getLatest(index);
+		return raw - mOffset[index];
 	}
 
 	public double getPower(int ch) {
-		LineSensorData pow = new LineSensorData();
-		for (int axis = 0; axis < 3; axis++) {
-			pow.setMag(ch, axis,
-					mSensorData.getMag(ch, axis) - mOffsetData.getMag(ch, axis));
+		if (ch < 1 || ch > 16)
+			return 0;
+		double sum = mLatest.sumOfSquaresLatest(getFrameIndex(ch, 0),
+				AXIS_NUM, mOffset);
+		return (int) Math.sqrt(sum);
+	}
+
+	/*
+	 * Position of channel ch (1..16) and axis (0..2) within a history frame.
+	 */
+	public static int getFrameIndex(int ch, int axis) {
+		return (ch - 1) * AXIS_NUM + axis;
+	}
+
+	public int getHistorySize() {
+		return mHistory.getCapacity();
+	}
+
+	public void setHistorySize(int frames) {
+		if (frames > 0) {
+			mHistory.setCapacity(frames);
 		}
-		return pow.calcPow(ch);
 	}
 
-	@Override
-	public void clearOffset() {
-		for (int axis = 0; axis < 3; axis++) {
-			for (int ch = 1; ch <= 16; ch++) {
-				mOffsetData.setMag(ch, axis, 0);
+	public int getHistoryCount() {
+		return mHistory.size();
+	}
+
+	/*
+	 * Copies one channel and axis of the newest frames, oldest first.
+	 * Returns the number of values copied.
+	 */
+	public int getHistory(int ch, int axis, double[] dst) {
+		return mHistory.copySeries(getFrameIndex(ch, axis), dst, 0,
+				dst.length);
+	}
+
+	/*
+	 * Copies the newest frames, FRAME_SIZE values each, oldest first.
+	 * Returns the number of frames copied.
+	 */
+	public int getHistoryFrames(double[] dst) {
+		return mHistory.copyFrames(dst, 0, dst.length / FRAME_SIZE);
+	}
+
+	public SampleSeries getHistoryView(int ch, int axis) {
+		return mHistory.newView(getFrameIndex(ch, axis));
+	}
+
+	/*
+	 * Reduces the history of one channel and axis to at most targetPoints
+	 * points for plotting; see Decimator.
+	 */
+	public int getDownsampled(int ch, int axis, int targetPoints, int mode,
+			double[] outX, double[] outY) {
+		int index = getFrameIndex(ch, axis);
+		synchronized (mDecimator) {
+			if (mPlotViews[index] == null) {
+				mPlotViews[index] = mHistory.newView(index);
 			}
+			mPlotViews[index].refresh();
+			return mDecimator.decimate(mPlotViews[index], targetPoints, mode,
+					outX, outY);
 		}
 	}
 
-	@Override
-	public void setOffset() {
-		for (int axis = 0; axis < 3; axis++) {
-			for (int ch = 1; ch <= 16; ch++) {
-				mOffsetData.setMag(ch, axis, mSensorData.getMag(ch, axis));
+	/*
+	 * Spectra of the newest analyzer.getSize() frames of every channel and
+	 * axis, written into level[getFrameIndex(ch, axis)]. Returns true if
+	 * fewer frames are retained.
+	 */
+	public boolean getSpectra(AmiMultiFft analyzer, double[][] level) {
+		int n = analyzer.getSize();
+		synchronized (mSpectrumData) {
+			double[][] data = mSpectrumData;
+			if (data[0].length != n) {
+				for (int i = 0; i < FRAME_SIZE; i++) {
+					data[i] = new double[n];
+				}
+				mSpectrumFrames = new double[n * FRAME_SIZE];
+			}
+			// one copy of whole frames keeps the channels aligned in time
+			if (mHistory.copyFrames(mSpectrumFrames, 0, n) < n) {
+				return true;
+			}
+			for (int f = 0, k = 0; f < n; f++) {
+				for (int i = 0; i < FRAME_SIZE; i++) {
+					data[i][f] = mSpectrumFrames[k++];
+				}
 			}
+			return analyzer.calc(data, FRAME_SIZE, 0, n, level);
+		}
+	}
+
+	/*
+	 * Copies the frames after the cursor position and advances it, so no
+	 * frame is missed between polls as long as the history holds them.
+	 */
+	public int readHistory(SampleCursor cursor, double[] dst, int off,
+			int frames) {
+		return mHistory.read(cursor, dst, off, frames);
+	}
+
+	@Override
+	public long getSequence() {
+		return mHistory.getSequence();
+	}
+
+	@Override
+	protected void fillBatch(long seq, AMISensorBatch batch) {
+		long first = Math.max(seq, mHistory.getFirstSequence());
+		int n = (int) (mHistory.getSequence() - first);
+		batch.prepare(FRAME_SIZE, n);
+		for (int i = 0; i < FRAME_SIZE; i++) {
+			mHistory.copySeriesFrom(first, i, batch.getData(i), 0, n);
 		}
+		batch.set(first, n);
+	}
+
+	@Override
+	public void clearOffset() {
+		mOffset = new double[FRAME_SIZE];
+	}
+
+	@Override
+	public void setOffset() {
+		double[] offset = new double[FRAME_SIZE];
+		mLatest.copyLatest(0, FRAME_SIZE, offset, 0);
+		mOffset = offset;
 	}
 
 	@Override
 	protected void initData() {
-		mText.setLength(0);
+		mHistory.clear();
+		mText.reset();
 	}
 
 	@Override
 	public void addData(byte[] rbuf, int len) {
 		for (int i = 0; i < len; i++) {
-			if (rbuf[i] >= '0' && rbuf[i] <= '9') {
-				mText.append((char) rbuf[i]);
-			} else if (rbuf[i] == '-') {
-				mText.append((char) rbuf[i]);
+			if ((rbuf[i] >= '0' && rbuf[i] <= '9') || rbuf[i] == '-') {
+				mText.append(rbuf[i]);
 			} else if ((rbuf[i] == ',')
 					| (rbuf[i] == '\r' && mChIndex == 15 && mAxisIndex == 2)) {
-				mLastValue.mag[mAxisIndex][mChIndex] = (double) Double
-						.parseDouble(mText.toString());
-				mText.setLength(0);
+				if (mText.isValid()) {
+					mLastValue.mag[mAxisIndex][mChIndex] = mText.doubleValue();
+				}
+				mText.reset();
 
 				mAxisIndex++;
 				if (mAxisIndex > 2) {
@@ -146,10 +285,19 @@ public class LineSensor extends AMISensor {
 					}
 				}
 			} else if (rbuf[i] == '|') {
-				mSensorData = new LineSensorData(mLastValue);
+				double[] offset = mOffset;
+				for (int ch = 0; ch < CH_NUM; ch++) {
+					for (int axis = 0; axis < AXIS_NUM; axis++) {
+						int index = ch * AXIS_NUM + axis;
+						mRawFrame[index] = mLastValue.mag[axis][ch];
+						mFrame[index] = mRawFrame[index] - offset[index];
+					}
+				}
+				mLatest.add(mRawFrame, 0);
+				mHistory.add(mFrame, 0);
 				mChIndex = 0;
 				mAxisIndex = 0;
-				mText.setLength(0);
+				mText.reset();
 			}
 		}
 	}
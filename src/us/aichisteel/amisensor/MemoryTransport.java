@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Transport backed by an in-memory byte queue. Bytes passed to feed() are
+ * returned by read() in order, and everything the sensor writes is kept
+ * for inspection.
+ */
+public class MemoryTransport implements SensorTransport {
+	private static final String TAG = MemoryTransport.class.getSimpleName();
+	private byte[] mBuffer;
+	private int mHead = 0; // next read position
+	private int mSize = 0;
+	private boolean mOpened = false;
+	private int mBaudRate = 0;
+	private ByteArrayOutputStream mWritten = new ByteArrayOutputStream();
+	private ReadListener mListener = null;
+
+	public MemoryTransport() {
+		this(4096);
+	}
+
+	public MemoryTransport(int capacity) {
+		mBuffer = new byte[capacity > 0 ? capacity : 1];
+	}
+
+	public void feed(byte[] buf) {
+		feed(buf, 0, buf.length);
+	}
+
+	public void feed(byte[] buf, int off, int len) {
+		ReadListener listener;
+		synchronized (this) {
+			if (mSize + len > mBuffer.length) {
+				byte[] grown = new byte[Math.max(mBuffer.length * 2, mSize + len)];
+				mSize = copyOut(grown, 0, mSize);
+				mHead = 0;
+				mBuffer = grown;
+			}
+			int tail = (mHead + mSize) % mBuffer.length;
+			int first = Math.min(len, mBuffer.length - tail);
+			System.arraycopy(buf, off, mBuffer, tail, first);
+			System.arraycopy(buf, off + first, mBuffer, 0, len - first);
+			mSize += len;
+			listener = mListener;
+		}
+		if (listener != null) {
+			listener.onRead(len);
+		}
+	}
+
+	public synchronized int available() {
+		return mSize;
+	}
+
+	public synchronized byte[] getWritten() {
+		return mWritten.toByteArray();
+	}
+
+	public synchronized void clearWritten() {
+		mWritten.reset();
+	}
+
+	public int getBaudRate() {
+		return mBaudRate;
+	}
+
+	private int copyOut(byte[] dst, int off, int len) {
+		int n = Math.min(mSize, len);
+		int first = Math.min(n, mBuffer.length - mHead);
+		System.arraycopy(mBuffer, mHead, dst, off, first);
+		System.arraycopy(mBuffer, 0, dst, off + first, n - first);
+		return n;
+	}
+
+	@Override
+	public synchronized boolean open() {
+		mOpened = true;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean close() {
+		mOpened = false;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isOpened() {
+		return mOpened;
+	}
+
+	@Override
+	public synchronized int read(byte[] buf) {
+		int n = copyOut(buf, 0, buf.length);
+		mHead = (mHead + n) % mBuffer.length;
+		mSize -= n;
+		return n;
+	}
+
+	@Override
+	public synchronized int write(byte[] buf, int size) {
+		mWritten.write(buf, 0, size);
+		return size;
+	}
+
+	@Override
+	public boolean setConfig(int baudrate) {
+		mBaudRate = baudrate;
+		return true;
+	}
+
+	@Override
+	public synchronized void setReadListener(ReadListener listener) {
+		mListener = listener;
+	}
+}
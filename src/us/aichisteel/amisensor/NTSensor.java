@@ -19,6 +19,13 @@ package us.aichisteel.amisensor;
 import java.util.ArrayList;
 import java.util.List;
 
+import us.aichisteel.misc.AsciiNumberParser;
+import us.aichisteel.misc.Decimator;
+import us.aichisteel.misc.DoubleRingBuffer;
+import us.aichisteel.misc.RunningStatistics;
+import us.aichisteel.misc.SampleCursor;
+import us.aichisteel.misc.SampleSeries;
+import us.aichisteel.misc.SampleStatistics;
 import android.content.Context;
 import android.util.Log;
 
@@ -33,17 +40,103 @@ public class NTSensor extends AMISensor {
 	private int mMaxSize = 1000; //
 	private double mSensitivity = 4.0; // 4[V/uT]
 	private double mOffset = DEFAULT_OFFSET_PIC;
-	private List<Double> mSensorData;
-	private StringBuilder mText = new StringBuilder();
+	private DoubleRingBuffer mSensorData;
+	private AsciiNumberParser mText = new AsciiNumberParser();
 	private double mLatestVoltage = mOffset;
+	private Decimator mDecimator = new Decimator();
+	private SampleSeries mPlotView = null;
+	private RunningStatistics mStatistics;
 
-	public NTSensor(Context c,AMISensorInterface listener) {
-		super(115200, "a", "s", c,listener);
-		this.mSensorData = new ArrayList<Double>();
+	public NTSensor(Context c, AMISensorInterface listener) {
+		this(c, listener, new PhysicaloidTransport(c));
+	}
+
+	public NTSensor(Context c, AMISensorInterface listener,
+			SensorTransport transport) {
+		super(115200, "a", "s", c, listener, transport);
+		this.mSensorData = new DoubleRingBuffer(mMaxSize);
+		this.mStatistics = new RunningStatistics(mMaxSize);
 	}
 
 	public List<Double> getData() {
-		return mSensorData;
+		double[] data = new double[mSensorData.getCapacity()];
+		int n = mSensorData.copyTo(data);
+		List<Double> retData = new ArrayList<Double>(n);
+		for (int i = 0; i < n; i++) {
+			retData.add(data[i]);
+		}
+		return retData;
+	}
+
+	public int getData(double[] dst) {
+		return mSensorData.copyTo(dst);
+	}
+
+	public int getData(double[] dst, int off, int len) {
+		return mSensorData.copyTo(dst, off, len);
+	}
+
+	public int getDataSize() {
+		return mSensorData.size();
+	}
+
+	/*
+	 * Read-only view of the history without copying; keep it and call
+	 * refresh() before each use.
+	 */
+	public SampleSeries getDataView() {
+		return mSensorData.newView();
+	}
+
+	/*
+	 * Statistics since the sensor was started, and over the retained
+	 * history window; updated per sample, so these only copy a few fields.
+	 */
+	public SampleStatistics getSessionStatistics(SampleStatistics out) {
+		return mStatistics.getSession(out);
+	}
+
+	public SampleStatistics getWindowStatistics(SampleStatistics out) {
+		return mStatistics.getWindow(out);
+	}
+
+	/*
+	 * Reduces the history to at most targetPoints points for plotting
+	 * (Decimator.MODE_MINMAX or MODE_LTTB). outX receives the sample index
+	 * counted from the oldest retained sample. Returns the point count.
+	 */
+	public int getDownsampled(int targetPoints, int mode, double[] outX,
+			double[] outY) {
+		synchronized (mDecimator) {
+			if (mPlotView == null) {
+				mPlotView = mSensorData.newView();
+			}
+			mPlotView.refresh();
+			return mDecimator.decimate(mPlotView, targetPoints, mode, outX,
+					outY);
+		}
+	}
+
+	/*
+	 * Copies the samples after the cursor position and advances it. Each
+	 * consumer thread keeps its own cursor.
+	 */
+	public int readData(SampleCursor cursor, double[] dst, int off, int len) {
+		return mSensorData.read(cursor, dst, off, len);
+	}
+
+	@Override
+	public long getSequence() {
+		return mSensorData.getSequence();
+	}
+
+	@Override
+	protected void fillBatch(long seq, AMISensorBatch batch) {
+		long first = Math.max(seq, mSensorData.getFirstSequence());
+		int n = (int) (mSensorData.getSequence() - first);
+		batch.prepare(1, n);
+		mSensorData.copyFrom(first, batch.getData(0), 0, n);
+		batch.set(first, n);
 	}
 
 	public double getLatestVoltage(){
@@ -57,6 +150,8 @@ public class NTSensor extends AMISensor {
 	public void setMaxTime(double sec) {
 		if (sec > 0) {
 			mMaxSize = (int) (NTSENSOR_SPS * sec);
+			mSensorData.setCapacity(mMaxSize);
+			mStatistics.setWindow(mMaxSize);
 		}
 	}
 
@@ -81,31 +176,26 @@ public class NTSensor extends AMISensor {
 	@Override
 	protected void initData() {
 		mSensorData.clear();
-		mText.setLength(0);
+		mStatistics.reset();
+		mText.reset();
 	}
 
 	@Override
 	public void addData(byte[] rbuf, int len) {
 		for (int i = 0; i < len; i++) {
 			if (rbuf[i] == 'v') {
-				try {
-					mLatestVoltage = Double.parseDouble(mText.toString());
-					mSensorData.add(1000 * (mLatestVoltage - mOffset)
-							/ mSensitivity);
-				} catch (Exception e) {
+				if (mText.isValid()) {
+					mLatestVoltage = mText.doubleValue();
+					double value = 1000 * (mLatestVoltage - mOffset)
+							/ mSensitivity;
+					mSensorData.add(value);
+					mStatistics.add(value);
+				} else {
 					Log.e("AMISENSOR: ", "Wrong Input Stirng2:" + mText);
 				}
-				mText.setLength(0);
-
-				while (mSensorData.size() > mMaxSize) {
-					mSensorData.remove(0);
-				}
-			} else if (rbuf[i] >= '0' && rbuf[i] <= '9') {
-				mText.append((char) rbuf[i]);
-			} else if (rbuf[i] == '-') {
-				mText.append((char) rbuf[i]);
-			} else if (rbuf[i] == '.') {
-				mText.append((char) rbuf[i]);
+				mText.reset();
+			} else {
+				mText.append(rbuf[i]);
 			}
 		}
 	}
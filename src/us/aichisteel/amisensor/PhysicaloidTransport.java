@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import android.content.Context;
+
+import com.physicaloid.lib.Physicaloid;
+import com.physicaloid.lib.usb.driver.uart.ReadLisener;
+import com.physicaloid.lib.usb.driver.uart.UartConfig;
+
+public class PhysicaloidTransport implements SensorTransport {
+	private static final String TAG = PhysicaloidTransport.class.getSimpleName();
+	private Physicaloid mSerial;
+
+	public PhysicaloidTransport(Context c) {
+		mSerial = new Physicaloid(c);
+	}
+
+	@Override
+	public boolean open() {
+		return mSerial.open();
+	}
+
+	@Override
+	public boolean close() {
+		return mSerial.close();
+	}
+
+	@Override
+	public boolean isOpened() {
+		return mSerial.isOpened();
+	}
+
+	@Override
+	public int read(byte[] buf) {
+		return mSerial.read(buf);
+	}
+
+	@Override
+	public int write(byte[] buf, int size) {
+		return mSerial.write(buf, size);
+	}
+
+	@Override
+	public boolean setConfig(int baudrate) {
+		return mSerial.setConfig(new UartConfig(baudrate,
+				UartConfig.DATA_BITS8, UartConfig.STOP_BITS1,
+				UartConfig.PARITY_NONE, false, false));
+	}
+
+	@Override
+	public void setReadListener(final ReadListener listener) {
+		mSerial.clearReadListener();
+		if (listener != null) {
+			mSerial.addReadListener(new ReadLisener() {
+				@Override
+				public void onRead(int size) {
+					listener.onRead(size);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package us.aichisteel.amisensor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raises the read callbacks of the replay transports, whose data becomes
+ * available with time rather than arriving from a driver. The transport
+ * calls notifyAt() whenever it knows when its next data will be ready;
+ * the listener is then called on a daemon thread, never under the
+ * transport's lock. Only the latest request is kept.
+ */
+final class ReadNotifier {
+	private static final String TAG = ReadNotifier.class.getSimpleName();
+	private final String mName;
+	private SensorTransport.ReadListener mListener = null;
+	private ScheduledThreadPoolExecutor mExecutor = null;
+	private ScheduledFuture<?> mPending = null;
+
+	ReadNotifier(String name) {
+		mName = name;
+	}
+
+	synchronized boolean hasListener() {
+		return mListener != null;
+	}
+
+	/*
+	 * null removes the listener and stops the thread.
+	 */
+	synchronized void setListener(SensorTransport.ReadListener listener) {
+		mListener = listener;
+		if (listener == null) {
+			cancel();
+			if (mExecutor != null) {
+				mExecutor.shutdown();
+				mExecutor = null;
+			}
+		}
+	}
+
+	/*
+	 * Calls the listener with size after delay ns, replacing an earlier
+	 * request that has not run yet.
+	 */
+	synchronized void notifyAt(long delay, final int size) {
+		if (mListener == null) {
+			return;
+		}
+		cancel();
+		if (mExecutor == null) {
+			mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, mName + "-" + TAG);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		mPending = mExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				SensorTransport.ReadListener listener;
+				synchronized (ReadNotifier.this) {
+					listener = mListener;
+				}
+				if (listener != null) {
+					listener.onRead(size);
+				}
+			}
+		}, Math.max(0, delay), TimeUnit.NANOSECONDS);
+	}
+
+	synchronized void cancel() {
+		if (mPending != null) {
+			mPending.cancel(false);
+			mPending = null;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Transport that plays back a recorded byte stream from a file. In real
+ * time mode bytes are released at the configured baud rate (10 bits per
+ * byte on an 8N1 line); otherwise every read returns as much as fits.
+ * Writes are discarded. With a read listener set (READ_MODE_EVENT) a
+ * callback follows every read while data remains, or in real time mode
+ * every NOTIFY_INTERVAL while playing.
+ */
+public class ReplayTransport implements SensorTransport {
+	private static final String TAG = ReplayTransport.class.getSimpleName();
+	private final static long NOTIFY_INTERVAL = 10000000; // [ns]
+	private final ReadNotifier mNotifier = new ReadNotifier(TAG);
+	private File mFile;
+	private boolean mRealTime;
+	private boolean mLoop = false;
+	private InputStream mInput = null;
+	private int mBaudRate = 115200;
+	private long mStartTime;
+	private long mDelivered;
+	private boolean mFinished = false;
+
+	public ReplayTransport(File file, boolean realtime) {
+		mFile = file;
+		mRealTime = realtime;
+	}
+
+	public void setLoop(boolean loop) {
+		mLoop = loop;
+	}
+
+	public boolean isFinished() {
+		return mFinished;
+	}
+
+	@Override
+	public synchronized boolean open() {
+		close();
+		try {
+			mInput = new BufferedInputStream(new FileInputStream(mFile));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		mStartTime = System.nanoTime();
+		mDelivered = 0;
+		mFinished = false;
+		scheduleNotify();
+		return true;
+	}
+
+	@Override
+	public synchronized boolean close() {
+		mNotifier.cancel();
+		if (mInput != null) {
+			try {
+				mInput.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mInput = null;
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isOpened() {
+		return mInput != null;
+	}
+
+	@Override
+	public synchronized int read(byte[] buf) {
+		if (mInput == null || mFinished) {
+			return 0;
+		}
+		int len = buf.length;
+		if (mRealTime) {
+			long due = (long) ((System.nanoTime() - mStartTime) * 1e-9
+					* mBaudRate / 10) - mDelivered;
+			len = (int) Math.min(len, due);
+		}
+		int n = 0;
+		try {
+			while (n < len) {
+				int r = mInput.read(buf, n, len - n);
+				if (r < 0) {
+					if (!mLoop || mFile.length() == 0) {
+						mFinished = true;
+						break;
+					}
+					mInput.close();
+					mInput = new BufferedInputStream(new FileInputStream(mFile));
+				} else {
+					n += r;
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			mFinished = true;
+		}
+		mDelivered += n;
+		scheduleNotify();
+		return n;
+	}
+
+	// asks for the callback announcing the next data; called under the lock
+	private void scheduleNotify() {
+		if (mInput == null || mFinished || !mNotifier.hasListener()) {
+			return;
+		}
+		if (mRealTime) {
+			mNotifier.notifyAt(NOTIFY_INTERVAL,
+					(int) (NOTIFY_INTERVAL * 1e-9 * mBaudRate / 10));
+		} else {
+			mNotifier.notifyAt(0, 1);
+		}
+	}
+
+	@Override
+	public int write(byte[] buf, int size) {
+		return size;
+	}
+
+	@Override
+	public boolean setConfig(int baudrate) {
+		if (baudrate > 0) {
+			mBaudRate = baudrate;
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void setReadListener(ReadListener listener) {
+		mNotifier.setListener(listener);
+		scheduleNotify();
+	}
+}
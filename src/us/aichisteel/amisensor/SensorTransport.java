@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.amisensor;
+
+/**
+ * Byte stream between AMISensor and a device. The USB serial link is one
+ * implementation; others let the parsing and read loop run without
+ * hardware. Line settings are always 8 data bits, 1 stop bit, no parity.
+ */
+public interface SensorTransport {
+	public interface ReadListener {
+		public void onRead(int size);
+	}
+
+	public boolean open();
+
+	public boolean close();
+
+	public boolean isOpened();
+
+	public int read(byte[] buf);
+
+	public int write(byte[] buf, int size);
+
+	public boolean setConfig(int baudrate);
+
+	// null removes the listener
+	public void setReadListener(ReadListener listener);
+}
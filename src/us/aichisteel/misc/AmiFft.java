@@ -25,51 +25,195 @@ import java.util.List;
 import static java.lang.Math.sqrt;
 import static java.lang.Math.pow;
 
-public class AmiFft {
+public class AmiFft implements SampleSink {
 	private static final String TAG = AmiFft.class.getSimpleName();
 	private List<Double> dFreq = new ArrayList<Double>();
 	private List<Double> dLevel = new ArrayList<Double>();
 	private int iNum;
-	private double dOdr;
+	private double dPeriod; // sample interval [s], 1 / ODR
 	private FFT4g mFft;
 	private double[] mCopy;
+	private double[] mFreqAxis;
+	private double[] mLevel;
 
-	public AmiFft(int n, double odr) {
+	// streaming mode: the newest iNum samples and the latest spectrum
+	private double[] mStream;
+	private int mStreamPos = 0;
+	private int mStreamSize = 0;
+	private int mHopSize;
+	private int mSinceLastSpectrum = 0;
+	private long mSpectrumCount = 0;
+	private double[] mStreamLevel;
+
+	/*
+	 * n is rounded down to a power of two. period is the time between two
+	 * samples in seconds, 1 / ODR: 0.004 for 250 Hz, not 250. AmiPsd,
+	 * AmiStft and GoertzelBank take the sample rate in Hz instead.
+	 */
+	public AmiFft(int n, double period) {
 		int power = 0;
 		while (pow(2, power) <= n) {
 			this.iNum = (int) pow(2, power);
 			power++;
 		}
 
-		dOdr = odr;
+		dPeriod = period;
 		mFft = new FFT4g(iNum);
 		mCopy = new double[iNum];
+		mLevel = new double[iNum / 2];
+		mFreqAxis = new double[iNum / 2];
+		for (int i = 0; i < iNum; i += 2) {
+			if (i == 0) {
+				mFreqAxis[i / 2] = 0.1;
+			} else {
+				mFreqAxis[i / 2] = (i / 2) * 1 / ((double) iNum * dPeriod);
+			}
+		}
+		mStream = new double[iNum];
+		mStreamLevel = new double[iNum / 2];
+		mHopSize = iNum;
 		// Log.e(TAG, "AmiFft: iNum=" + String.valueOf(iNum));
 	}
 
+	/*
+	 * Transforms a.get(0) .. a.get(iNum - 1). Returns true if fewer than
+	 * iNum samples are given, as the array and ring overloads do.
+	 */
 	public boolean AmiFftCalc(List<Double> a) {
 		dLevel.clear();
 		dFreq.clear();
 
-		if (a.size() <= iNum)
+		if (a.size() < iNum)
 			return true;
 
 		for (int i = 0; i < iNum; i++) {
 			mCopy[i] = a.get(i).doubleValue();
 		}
+		calcLevel(mLevel);
+		for (int i = 0; i < iNum / 2; i++) {
+			dLevel.add(mLevel[i]);
+			dFreq.add(mFreqAxis[i]);
+		}
+		return false;
+	}
+
+	/*
+	 * Transforms a[off] .. a[off + iNum - 1]. Returns true if fewer than
+	 * iNum samples are given. The result is read with getLevel(double[]).
+	 */
+	public boolean AmiFftCalc(double[] a, int off, int len) {
+		return AmiFftCalc(a, off, len, mLevel);
+	}
+
+	/*
+	 * Same as above, but writes getNum() levels into the caller's array.
+	 */
+	public boolean AmiFftCalc(double[] a, int off, int len, double[] level) {
+		if (len < iNum) {
+			return true;
+		}
+		System.arraycopy(a, off, mCopy, 0, iNum);
+		calcLevel(level);
+		return false;
+	}
+
+	/*
+	 * Transforms the newest iNum samples of the ring.
+	 */
+	public boolean AmiFftCalc(DoubleRingBuffer ring) {
+		if (ring.copyTo(mCopy, 0, iNum) < iNum) {
+			return true;
+		}
+		calcLevel(mLevel);
+		return false;
+	}
+
+	// transforms mCopy in place and writes iNum/2 magnitudes into level
+	private void calcLevel(double[] level) {
 		mFft.rdft(1, mCopy);
+		double scale = 1.0 / (iNum / 2);
 		for (int i = 0; i < iNum; i += 2) {
-			dLevel.add(sqrt(pow(mCopy[i], 2) + pow(mCopy[i + 1], 2))
-					/ (iNum / 2));
-			if (i == 0) {
-				dFreq.add(0.1);
-			} else {
-				dFreq.add((i / 2) * 1 / ((double) iNum * dOdr));
-			}
+			level[i / 2] = sqrt(mCopy[i] * mCopy[i] + mCopy[i + 1]
+					* mCopy[i + 1])
+					* scale;
+		}
+	}
+
+	public int getHopSize() {
+		return mHopSize;
+	}
+
+	/*
+	 * Number of new samples between two spectra in streaming mode.
+	 */
+	public void setHopSize(int hop) {
+		if (hop > 0) {
+			mHopSize = hop;
+		}
+	}
+
+	public void resetStream() {
+		mStreamPos = 0;
+		mStreamSize = 0;
+		mSinceLastSpectrum = 0;
+	}
+
+	/*
+	 * Streaming mode: appends one sample and returns true when a new
+	 * spectrum of the latest iNum samples has been computed.
+	 */
+	public boolean push(double value) {
+		mStream[mStreamPos] = value;
+		if (++mStreamPos == iNum) {
+			mStreamPos = 0;
+		}
+		if (mStreamSize < iNum) {
+			mStreamSize++;
+		}
+		if (++mSinceLastSpectrum >= mHopSize && mStreamSize == iNum) {
+			mSinceLastSpectrum = 0;
+			calcStreamSpectrum();
+			return true;
 		}
 		return false;
 	}
 
+	/*
+	 * Appends len samples and returns the number of spectra computed; only
+	 * the last one is kept.
+	 */
+	@Override
+	public int push(double[] a, int off, int len) {
+		int count = 0;
+		for (int i = off; i < off + len; i++) {
+			if (push(a[i])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void calcStreamSpectrum() {
+		int first = iNum - mStreamPos;
+		System.arraycopy(mStream, mStreamPos, mCopy, 0, first);
+		System.arraycopy(mStream, 0, mCopy, first, mStreamPos);
+		calcLevel(mStreamLevel);
+		mSpectrumCount++;
+	}
+
+	public long getSpectrumCount() {
+		return mSpectrumCount;
+	}
+
+	/*
+	 * Copies the latest streaming spectrum (getNum() levels) into dst.
+	 */
+	public int getStreamLevel(double[] dst) {
+		int n = Math.min(dst.length, mStreamLevel.length);
+		System.arraycopy(mStreamLevel, 0, dst, 0, n);
+		return n;
+	}
+
 	public int getNum() {
 		return iNum / 2;
 	}
@@ -82,6 +226,25 @@ public class AmiFft {
 		return dLevel;
 	}
 
+	/*
+	 * Copies the frequency axis (getNum() points) into dst. The axis only
+	 * depends on the size and ODR and is computed once.
+	 */
+	public int getFreq(double[] dst) {
+		int n = Math.min(dst.length, mFreqAxis.length);
+		System.arraycopy(mFreqAxis, 0, dst, 0, n);
+		return n;
+	}
+
+	/*
+	 * Copies the levels of the last AmiFftCalc into dst.
+	 */
+	public int getLevel(double[] dst) {
+		int n = Math.min(dst.length, mLevel.length);
+		System.arraycopy(mLevel, 0, dst, 0, n);
+		return n;
+	}
+
 	/*
 	 * public double getLogScaleFreq() {
 	 *
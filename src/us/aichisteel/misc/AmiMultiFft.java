@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package us.aichisteel.misc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the spectra of many channels in one call, e.g. the X, Y, Z and
+ * power series of a 3-axis sensor or the 48 series of a LineSensor. The
+ * channels are shared out between the calling thread and a small pool of
+ * worker threads; each thread has its own AmiFft as scratch, and the
+ * levels are written straight into the caller's result matrix.
+ *
+ * Levels are the same as AmiFft.AmiFftCalc(double[], int, int, double[])
+ * gives for each channel.
+ */
+public class AmiMultiFft {
+	private static final String TAG = AmiMultiFft.class.getSimpleName();
+
+	private final AmiFft[] mFfts; // [0] belongs to the calling thread
+	private final Worker[] mWorkers;
+	private final ThreadPoolExecutor mExecutor;
+	private final int iNum;
+
+	// the job in progress; published to the workers by execute()
+	private double[][] mData;
+	private double[][] mLevel;
+	private int mChannels;
+	private int mOff;
+	private int mLen;
+	private final AtomicInteger mNext = new AtomicInteger();
+	private volatile RuntimeException mError;
+	private CountDownLatch mDone;
+
+	/*
+	 * n and period as for AmiFft: period is the sample interval in seconds.
+	 */
+	public AmiMultiFft(int n, double period) {
+		this(n, period, Runtime.getRuntime().availableProcessors());
+	}
+
+	/*
+	 * threads includes the calling thread; 1 computes everything serially.
+	 */
+	public AmiMultiFft(int n, double period, int threads) {
+		threads = Math.max(1, threads);
+		mFfts = new AmiFft[threads];
+		for (int i = 0; i < threads; i++) {
+			mFfts[i] = new AmiFft(n, period);
+		}
+		iNum = mFfts[0].getNum() * 2;
+		mWorkers = new Worker[threads];
+		for (int i = 1; i < threads; i++) {
+			mWorkers[i] = new Worker(mFfts[i]);
+		}
+		if (threads > 1) {
+			mExecutor = new ThreadPoolExecutor(threads - 1, threads - 1, 0,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private int mCount = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							Thread t = new Thread(r, TAG + "-" + (++mCount));
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		} else {
+			mExecutor = null;
+		}
+	}
+
+	/*
+	 * Number of levels per channel.
+	 */
+	public int getNum() {
+		return iNum / 2;
+	}
+
+	/*
+	 * Number of samples each channel needs.
+	 */
+	public int getSize() {
+		return iNum;
+	}
+
+	public int getThreadCount() {
+		return mFfts.length;
+	}
+
+	public int getFreq(double[] dst) {
+		return mFfts[0].getFreq(dst);
+	}
+
+	/*
+	 * Transforms data[ch][off] .. data[ch][off + getSize() - 1] for ch =
+	 * 0 .. channels - 1 and writes getNum() levels into level[ch]. Returns
+	 * true, like every AmiFftCalc overload, if fewer than getSize() samples
+	 * are given.
+	 * Calls from several threads are served one after another.
+	 */
+	public synchronized boolean calc(double[][] data, int channels, int off,
+			int len, double[][] level) {
+		if (len < iNum) {
+			return true;
+		}
+		int helpers = 0;
+		if (mExecutor != null && !mExecutor.isShutdown()) {
+			helpers = Math.max(0, Math.min(mWorkers.length, channels) - 1);
+		}
+		mData = data;
+		mLevel = level;
+		mChannels = channels;
+		mOff = off;
+		mLen = len;
+		mNext.set(0);
+		mError = null;
+		mDone = new CountDownLatch(helpers);
+		for (int i = 1; i <= helpers; i++) {
+			mExecutor.execute(mWorkers[i]);
+		}
+		try {
+			runChannels(mFfts[0]);
+		} catch (RuntimeException e) {
+			mError = e;
+			mNext.set(channels); // let the workers finish early
+		}
+		awaitWorkers();
+		mData = null;
+		mLevel = null;
+		if (mError != null) {
+			throw mError;
+		}
+		return false;
+	}
+
+	/*
+	 * Stops the worker threads after a calc() in progress. Later calls
+	 * compute serially.
+	 */
+	public synchronized void shutdown() {
+		if (mExecutor != null) {
+			mExecutor.shutdown();
+		}
+	}
+
+	// claims channels until none are left; each channel is one transform
+	private void runChannels(AmiFft fft) {
+		int ch;
+		while ((ch = mNext.getAndIncrement()) < mChannels) {
+			fft.AmiFftCalc(mData[ch], mOff, mLen, mLevel[ch]);
+		}
+	}
+
+	private void awaitWorkers() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				mDone.await();
+				break;
+			} catch (InterruptedException e) {
+				// the workers still write into the caller's matrix
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private final class Worker implements Runnable {
+		private final AmiFft mFft;
+
+		Worker(AmiFft fft) {
+			mFft = fft;
+		}
+
+		@Override
+		public void run() {
+			try {
+				runChannels(mFft);
+			} catch (RuntimeException e) {
+				mError = e;
+				mNext.set(mChannels);
+			} finally {
+				mDone.countDown();
+			}
+		}
+	}
+}
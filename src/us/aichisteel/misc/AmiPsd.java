@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * One-sided power spectral density by Welch's method: windowed,
+ * overlapping segments of n samples are transformed and their
+ * periodograms averaged. Input is in nT as produced by the sensor
+ * classes; output is nT^2/Hz, or V^2/Hz given the sensitivity in V/uT.
+ * All buffers are allocated once, so samples can be pushed from the
+ * live stream.
+ */
+public class AmiPsd implements SampleSink {
+	private static final String TAG = AmiPsd.class.getSimpleName();
+	public final static int UNIT_NT2_PER_HZ = 0;
+	public final static int UNIT_V2_PER_HZ = 1;
+
+	private int iNum;
+	private double dSampleRate; // sampling rate [Hz]
+	private FFT4g mFft;
+	private double[] mWindow;
+	private double mWindowPower;
+	private double[] mWork;
+	private double[] mAccum;
+	private double[] mPsd;
+	private int mHopSize;
+	private int mAverages = 8;
+	private int mSegments = 0;
+	private int mUnit = UNIT_NT2_PER_HZ;
+	private double mSensitivity = 1.0; // [V/uT]
+
+	// streaming input: the newest iNum samples
+	private double[] mStream;
+	private int mStreamPos = 0;
+	private int mStreamSize = 0;
+	private int mSinceLastSegment = 0;
+
+	/*
+	 * n is rounded down to a power of two; sampleRate is the ODR in Hz
+	 * (AmiFft takes the sample period instead).
+	 */
+	public AmiPsd(int n, double sampleRate, int window) {
+		iNum = 4;
+		while (iNum * 2 <= n) {
+			iNum *= 2;
+		}
+		dSampleRate = sampleRate;
+		mFft = new FFT4g(iNum);
+		mWork = new double[iNum];
+		mAccum = new double[iNum / 2 + 1];
+		mPsd = new double[iNum / 2 + 1];
+		mStream = new double[iNum];
+		mHopSize = iNum / 2;
+		setWindow(window);
+	}
+
+	public void setWindow(int window) {
+		mWindow = AmiWindow.getCoefficients(window, iNum);
+		mWindowPower = AmiWindow.getPowerSum(mWindow);
+		reset();
+	}
+
+	/*
+	 * Fraction of each segment shared with the next one, 0 <= overlap < 1.
+	 */
+	public void setOverlap(double overlap) {
+		if (overlap >= 0 && overlap < 1) {
+			mHopSize = Math.max(1, (int) Math.round(iNum * (1 - overlap)));
+		}
+	}
+
+	public int getHopSize() {
+		return mHopSize;
+	}
+
+	// segments averaged per streaming result
+	public void setAverages(int averages) {
+		if (averages > 0) {
+			mAverages = averages;
+		}
+	}
+
+	public void setUnit(int unit) {
+		mUnit = unit;
+	}
+
+	public void setSensitivity(double sens) {
+		mSensitivity = sens;
+	}
+
+	public int getNum() {
+		return iNum / 2 + 1;
+	}
+
+	public int getSegmentSize() {
+		return iNum;
+	}
+
+	public void reset() {
+		mStreamPos = 0;
+		mStreamSize = 0;
+		mSinceLastSegment = 0;
+		clearAccum();
+	}
+
+	/*
+	 * Welch estimate over a[off] .. a[off + len - 1] using every full
+	 * segment. Returns true if len is shorter than one segment.
+	 */
+	public boolean calc(double[] a, int off, int len) {
+		if (len < iNum) {
+			return true;
+		}
+		clearAccum();
+		for (int start = off; start + iNum <= off + len; start += mHopSize) {
+			for (int i = 0; i < iNum; i++) {
+				mWork[i] = a[start + i] * mWindow[i];
+			}
+			accumulate();
+		}
+		finish();
+		return false;
+	}
+
+	/*
+	 * Streaming mode: returns true when a new average of the configured
+	 * number of segments is available.
+	 */
+	public boolean push(double value) {
+		mStream[mStreamPos] = value;
+		if (++mStreamPos == iNum) {
+			mStreamPos = 0;
+		}
+		if (mStreamSize < iNum) {
+			mStreamSize++;
+		}
+		if (++mSinceLastSegment < mHopSize || mStreamSize < iNum) {
+			return false;
+		}
+		mSinceLastSegment = 0;
+		for (int i = 0, j = mStreamPos; i < iNum; i++) {
+			mWork[i] = mStream[j] * mWindow[i];
+			if (++j == iNum) {
+				j = 0;
+			}
+		}
+		accumulate();
+		if (mSegments < mAverages) {
+			return false;
+		}
+		finish();
+		return true;
+	}
+
+	@Override
+	public int push(double[] a, int off, int len) {
+		int count = 0;
+		for (int i = off; i < off + len; i++) {
+			if (push(a[i])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public int getPsd(double[] dst) {
+		int n = Math.min(dst.length, mPsd.length);
+		System.arraycopy(mPsd, 0, dst, 0, n);
+		return n;
+	}
+
+	public int getFreq(double[] dst) {
+		int n = Math.min(dst.length, mPsd.length);
+		for (int i = 0; i < n; i++) {
+			dst[i] = i * dSampleRate / iNum;
+		}
+		return n;
+	}
+
+	private void clearAccum() {
+		for (int i = 0; i < mAccum.length; i++) {
+			mAccum[i] = 0;
+		}
+		mSegments = 0;
+	}
+
+	private void accumulate() {
+		mFft.rdft(1, mWork);
+		mAccum[0] += mWork[0] * mWork[0];
+		mAccum[iNum / 2] += mWork[1] * mWork[1];
+		for (int i = 2; i < iNum; i += 2) {
+			mAccum[i / 2] += mWork[i] * mWork[i] + mWork[i + 1] * mWork[i + 1];
+		}
+		mSegments++;
+	}
+
+	private void finish() {
+		double scale = 2.0 / (dSampleRate * mWindowPower * mSegments);
+		if (mUnit == UNIT_V2_PER_HZ) {
+			double v = mSensitivity / 1000; // [V/nT]
+			scale *= v * v;
+		}
+		for (int i = 0; i < mAccum.length; i++) {
+			mPsd[i] = mAccum[i] * scale;
+		}
+		// DC and Nyquist bins are not folded
+		mPsd[0] /= 2;
+		mPsd[iNum / 2] /= 2;
+		clearAccum();
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package us.aichisteel.misc;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Short-time Fourier transform for waterfall displays. Every hop samples
+ * the newest n samples are windowed and transformed, and the one-sided
+ * amplitude spectrum becomes the next column of a circular matrix of
+ * spectra; old columns are never transformed again. Attach it to a
+ * sensor with addSampleSink() to follow the live stream.
+ *
+ * Amplitudes are in the input unit and corrected for the window gain, so
+ * a sine of amplitude 1 on a bin reads 1 with any window.
+ */
+public class AmiStft implements SampleSink {
+	private static final String TAG = AmiStft.class.getSimpleName();
+
+	private int iNum;
+	private double dSampleRate; // sampling rate [Hz]
+	private FFT4g mFft;
+	private double[] mWindow;
+	private double mScale;
+	private double[] mWork;
+	private int mHopSize;
+
+	// column (count % columns) is written next; guarded by mMatrix
+	private final double[][] mMatrix;
+	private long mColumnCount = 0;
+
+	// streaming input: the newest iNum samples
+	private double[] mStream;
+	private int mStreamPos = 0;
+	// samples until the next column is complete; column k covers samples
+	// k * hop .. k * hop + n - 1 after reset(), as in calc()
+	private int mUntilColumn;
+
+	/*
+	 * sampleRate in Hz, e.g. 250 for a 250 Hz ODR.
+	 */
+	public AmiStft(int n, double sampleRate, int window, int columns) {
+		iNum = 4;
+		while (iNum * 2 <= n) {
+			iNum *= 2;
+		}
+		dSampleRate = sampleRate;
+		mFft = new FFT4g(iNum);
+		mWork = new double[iNum];
+		mStream = new double[iNum];
+		mMatrix = new double[Math.max(1, columns)][iNum / 2 + 1];
+		mHopSize = iNum / 2;
+		setWindow(window);
+	}
+
+	/*
+	 * AmiWindow.WINDOW_*; clears the matrix and the stream.
+	 */
+	public void setWindow(int window) {
+		mWindow = AmiWindow.getCoefficients(window, iNum);
+		double sum = 0;
+		for (int i = 0; i < iNum; i++) {
+			sum += mWindow[i];
+		}
+		mScale = 2.0 / sum;
+		reset();
+	}
+
+	/*
+	 * Samples between the starts of two columns; may exceed the transform
+	 * size. A change while streaming applies after the next column.
+	 */
+	public void setHopSize(int hop) {
+		if (hop > 0) {
+			mHopSize = hop;
+		}
+	}
+
+	public int getHopSize() {
+		return mHopSize;
+	}
+
+	/*
+	 * Number of levels per column.
+	 */
+	public int getNum() {
+		return iNum / 2 + 1;
+	}
+
+	public int getSegmentSize() {
+		return iNum;
+	}
+
+	public int getColumns() {
+		return mMatrix.length;
+	}
+
+	public void reset() {
+		mStreamPos = 0;
+		mUntilColumn = iNum;
+		synchronized (mMatrix) {
+			for (int c = 0; c < mMatrix.length; c++) {
+				for (int i = 0; i < mMatrix[c].length; i++) {
+					mMatrix[c][i] = 0;
+				}
+			}
+			mColumnCount = 0;
+		}
+	}
+
+	/*
+	 * Clears the matrix and fills it with the columns of a[off] .. a[off +
+	 * len - 1], one every hop samples. Returns true if len is shorter than
+	 * one segment.
+	 */
+	public boolean calc(double[] a, int off, int len) {
+		if (len < iNum) {
+			return true;
+		}
+		reset();
+		for (int start = off; start + iNum <= off + len; start += mHopSize) {
+			for (int i = 0; i < iNum; i++) {
+				mWork[i] = a[start + i] * mWindow[i];
+			}
+			addColumn();
+		}
+		return false;
+	}
+
+	/*
+	 * Streaming mode: returns true when a new column has been added. The
+	 * pushed samples give the same columns as calc() over them.
+	 */
+	public boolean push(double value) {
+		mStream[mStreamPos] = value;
+		if (++mStreamPos == iNum) {
+			mStreamPos = 0;
+		}
+		if (--mUntilColumn > 0) {
+			return false;
+		}
+		mUntilColumn = mHopSize;
+		for (int i = 0, j = mStreamPos; i < iNum; i++) {
+			mWork[i] = mStream[j] * mWindow[i];
+			if (++j == iNum) {
+				j = 0;
+			}
+		}
+		addColumn();
+		return true;
+	}
+
+	/*
+	 * Returns the number of columns added.
+	 */
+	@Override
+	public int push(double[] a, int off, int len) {
+		int count = 0;
+		for (int i = off; i < off + len; i++) {
+			if (push(a[i])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Total number of columns added since the last reset; the newest one
+	 * is row (getColumnCount() - 1) % getColumns() of getMatrix().
+	 */
+	public long getColumnCount() {
+		synchronized (mMatrix) {
+			return mColumnCount;
+		}
+	}
+
+	/*
+	 * The circular matrix itself, [column][level]. Read it on the thread
+	 * that pushes samples, or use copyColumns() from other threads.
+	 */
+	public double[][] getMatrix() {
+		return mMatrix;
+	}
+
+	/*
+	 * Copies the newest min(dst.length, available) columns into dst[0..],
+	 * oldest first. Returns the number of columns copied.
+	 */
+	public int copyColumns(double[][] dst) {
+		synchronized (mMatrix) {
+			int n = (int) Math.min(Math.min(dst.length, mMatrix.length),
+					mColumnCount);
+			long first = mColumnCount - n;
+			for (int c = 0; c < n; c++) {
+				double[] col = mMatrix[(int) ((first + c) % mMatrix.length)];
+				System.arraycopy(col, 0, dst[c], 0,
+						Math.min(dst[c].length, col.length));
+			}
+			return n;
+		}
+	}
+
+	public int getFreq(double[] dst) {
+		int n = Math.min(dst.length, iNum / 2 + 1);
+		for (int i = 0; i < n; i++) {
+			dst[i] = i * dSampleRate / iNum;
+		}
+		return n;
+	}
+
+	// transforms mWork and stores its amplitudes as the next column
+	private void addColumn() {
+		mFft.rdft(1, mWork);
+		// the packed real parts of DC and Nyquist are not folded
+		mWork[0] = Math.abs(mWork[0]) * mScale / 2;
+		mWork[1] = Math.abs(mWork[1]) * mScale / 2;
+		for (int i = 2; i < iNum; i += 2) {
+			mWork[i] = sqrt(mWork[i] * mWork[i] + mWork[i + 1] * mWork[i + 1])
+					* mScale;
+		}
+		synchronized (mMatrix) {
+			double[] col = mMatrix[(int) (mColumnCount % mMatrix.length)];
+			col[0] = mWork[0];
+			col[iNum / 2] = mWork[1];
+			for (int i = 2; i < iNum; i += 2) {
+				col[i / 2] = mWork[i];
+			}
+			mColumnCount++;
+		}
+	}
+}
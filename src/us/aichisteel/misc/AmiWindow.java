@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.cos;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FFT window functions. Coefficients are periodic (DFT-even) and cached
+ * per type and size; the returned arrays are shared and must not be
+ * modified.
+ */
+public class AmiWindow {
+	private static final String TAG = AmiWindow.class.getSimpleName();
+	public final static int WINDOW_RECTANGULAR = 0;
+	public final static int WINDOW_HANN = 1;
+	public final static int WINDOW_HAMMING = 2;
+	public final static int WINDOW_BLACKMAN_HARRIS = 3;
+
+	private static final Map<Long, double[]> sCache = new HashMap<Long, double[]>();
+
+	public static double[] getCoefficients(int type, int n) {
+		Long key = Long.valueOf(((long) type << 32) | n);
+		synchronized (sCache) {
+			double[] w = sCache.get(key);
+			if (w == null) {
+				w = calcCoefficients(type, n);
+				sCache.put(key, w);
+			}
+			return w;
+		}
+	}
+
+	/*
+	 * Sum of squared coefficients, used to normalize power spectra.
+	 */
+	public static double getPowerSum(double[] w) {
+		double sum = 0;
+		for (int i = 0; i < w.length; i++) {
+			sum += w[i] * w[i];
+		}
+		return sum;
+	}
+
+	private static double[] calcCoefficients(int type, int n) {
+		double[] w = new double[n];
+		for (int i = 0; i < n; i++) {
+			double x = 2 * PI * i / n;
+			switch (type) {
+			case WINDOW_HANN:
+				w[i] = 0.5 - 0.5 * cos(x);
+				break;
+			case WINDOW_HAMMING:
+				w[i] = 0.54 - 0.46 * cos(x);
+				break;
+			case WINDOW_BLACKMAN_HARRIS:
+				w[i] = 0.35875 - 0.48829 * cos(x) + 0.14128 * cos(2 * x)
+						- 0.01168 * cos(3 * x);
+				break;
+			default:
+				w[i] = 1.0;
+				break;
+			}
+		}
+		return w;
+	}
+}
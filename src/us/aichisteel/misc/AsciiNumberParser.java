@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Reusable accumulator for ASCII fixed-point numbers such as "-0.158".
+ * Bytes are fed one at a time straight from the serial read buffer, so a
+ * value is parsed without building a String. Only sign, digits and one
+ * decimal point are accepted; any other byte is ignored by append().
+ */
+public class AsciiNumberParser {
+	private static final String TAG = AsciiNumberParser.class.getSimpleName();
+	private static final int MAX_DIGITS = 18; // still fits in a long
+	private static final int MAX_TEXT = 32;
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+			1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private long mMantissa;
+	private int mDigits;
+	private int mFraction; // digits after the decimal point
+	private int mExponent; // integer digits dropped beyond MAX_DIGITS
+	private boolean mNegative;
+	private boolean mPoint;
+	private boolean mMalformed;
+	private byte[] mText = new byte[MAX_TEXT]; // kept for error messages
+	private int mTextLength;
+
+	public AsciiNumberParser() {
+		reset();
+	}
+
+	public void reset() {
+		mMantissa = 0;
+		mDigits = 0;
+		mFraction = 0;
+		mExponent = 0;
+		mNegative = false;
+		mPoint = false;
+		mMalformed = false;
+		mTextLength = 0;
+	}
+
+	/*
+	 * Returns true if the byte was part of a number and has been consumed.
+	 */
+	public boolean append(byte b) {
+		if (b >= '0' && b <= '9') {
+			if (mDigits < MAX_DIGITS) {
+				mMantissa = mMantissa * 10 + (b - '0');
+				mDigits++;
+				if (mPoint) {
+					mFraction++;
+				}
+			} else if (!mPoint) {
+				mExponent++;
+			}
+		} else if (b == '-') {
+			if (mNegative || mDigits > 0 || mPoint) {
+				mMalformed = true;
+			}
+			mNegative = true;
+		} else if (b == '.') {
+			if (mPoint) {
+				mMalformed = true;
+			}
+			mPoint = true;
+		} else {
+			return false;
+		}
+		if (mTextLength < MAX_TEXT) {
+			mText[mTextLength++] = b;
+		}
+		return true;
+	}
+
+	public boolean isEmpty() {
+		return mTextLength == 0;
+	}
+
+	public boolean isValid() {
+		return mDigits > 0 && !mMalformed;
+	}
+
+	public double doubleValue() {
+		double value = mMantissa;
+		if (mFraction > 0) {
+			value /= POW10[mFraction];
+		} else if (mExponent > 0) {
+			value *= Math.pow(10, mExponent);
+		}
+		return mNegative ? -value : value;
+	}
+
+	public long longValue() {
+		long value = mMantissa;
+		for (int i = 0; i < mFraction; i++) {
+			value /= 10;
+		}
+		for (int i = 0; i < mExponent; i++) {
+			value *= 10;
+		}
+		return mNegative ? -value : value;
+	}
+
+	@Override
+	public String toString() {
+		return new String(mText, 0, mTextLength);
+	}
+}
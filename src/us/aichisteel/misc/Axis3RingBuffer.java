@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Fixed-capacity history of 3-axis samples. The magnitude
+ * sqrt(x^2 + y^2 + z^2) is computed once per sample on add and kept as a
+ * fourth channel, AXIS_POWER. Index 0 is always the oldest retained
+ * sample.
+ *
+ * A planar FrameRingBuffer of CHANNEL_NUM-value frames, so each axis is
+ * its own primitive ring (struct of arrays) and copies in bulk: a single
+ * writer, lock-free readers, and copies that drop samples overwritten while
+ * copying. All axes of a copy cover the same sample range.
+ */
+public class Axis3RingBuffer {
+	private static final String TAG = Axis3RingBuffer.class.getSimpleName();
+	public final static int AXIS_X = 0;
+	public final static int AXIS_Y = 1;
+	public final static int AXIS_Z = 2;
+	public final static int AXIS_NUM = 3;
+	public final static int AXIS_POWER = 3;
+	public final static int CHANNEL_NUM = 4; // X, Y, Z and power
+
+	private final FrameRingBuffer mRing;
+	private final double[] mFrame = new double[CHANNEL_NUM]; // writer only
+
+	public Axis3RingBuffer(int capacity) {
+		mRing = new FrameRingBuffer(CHANNEL_NUM, capacity, true);
+	}
+
+	public int getCapacity() {
+		return mRing.getCapacity();
+	}
+
+	/*
+	 * Takes effect with the next add(), on the writer thread. The newest
+	 * samples that still fit are kept.
+	 */
+	public void setCapacity(int capacity) {
+		mRing.setCapacity(capacity);
+	}
+
+	public int size() {
+		return mRing.size();
+	}
+
+	public void clear() {
+		mRing.clear();
+	}
+
+	/*
+	 * Sequence number of the next sample; sample numbers keep increasing
+	 * across clear() and setCapacity().
+	 */
+	public long getSequence() {
+		return mRing.getSequence();
+	}
+
+	public long getFirstSequence() {
+		return mRing.getFirstSequence();
+	}
+
+	public void add(double x, double y, double z) {
+		mFrame[AXIS_X] = x;
+		mFrame[AXIS_Y] = y;
+		mFrame[AXIS_Z] = z;
+		mFrame[AXIS_POWER] = Math.sqrt(x * x + y * y + z * z);
+		mRing.add(mFrame, 0);
+	}
+
+	public void add(double[] xyz) {
+		add(xyz[AXIS_X], xyz[AXIS_Y], xyz[AXIS_Z]);
+	}
+
+	/*
+	 * Returns the i-th retained sample, 0 being the oldest. Not validated
+	 * against concurrent writes; use the copy methods for snapshots.
+	 */
+	public double get(int axis, int i) {
+		return mRing.get(axis, i);
+	}
+
+	public double getLatest(int axis) {
+		return mRing.getLatest(axis);
+	}
+
+	public int copyTo(int axis, double[] dst) {
+		return copyTo(axis, dst, 0, dst.length);
+	}
+
+	/*
+	 * Copies the newest min(size, len) samples of one axis, oldest first,
+	 * into dst starting at off. Returns the number of samples copied.
+	 */
+	public int copyTo(int axis, double[] dst, int off, int len) {
+		return mRing.copySeries(axis, dst, off, len);
+	}
+
+	/*
+	 * Copies the newest samples of all axes into dst[AXIS_X..AXIS_Z].
+	 */
+	public int copyTo(double[][] dst, int off, int len) {
+		return mRing.copySeries(AXIS_NUM, dst, off, len);
+	}
+
+	/*
+	 * Copies the newest samples of all axes and the magnitude into
+	 * dst[AXIS_X..AXIS_POWER].
+	 */
+	public int copyChannelsTo(double[][] dst, int off, int len) {
+		return mRing.copySeries(CHANNEL_NUM, dst, off, len);
+	}
+
+	/*
+	 * Copies the magnitude of the newest samples into dst.
+	 */
+	public int copyMagnitudeTo(double[] dst, int off, int len) {
+		return mRing.copySeries(AXIS_POWER, dst, off, len);
+	}
+
+	/*
+	 * Copies up to len samples of one axis starting at sequence number seq
+	 * (or the oldest retained one, if later). Returns the number copied.
+	 */
+	public int copyFrom(long seq, int axis, double[] dst, int off, int len) {
+		return mRing.copySeriesFrom(seq, axis, dst, off, len);
+	}
+
+	/*
+	 * Copies up to len samples of all axes from the cursor position and
+	 * advances it.
+	 */
+	public int read(SampleCursor cursor, double[][] dst, int off, int len) {
+		return mRing.readSeries(cursor, AXIS_NUM, dst, off, len);
+	}
+
+	/*
+	 * Returns a view of one axis (or AXIS_POWER) reading the ring in
+	 * place; see SampleSeries.
+	 */
+	public SampleSeries newView(int axis) {
+		return mRing.newView(axis);
+	}
+
+	public SampleSeries newMagnitudeView() {
+		return mRing.newView(AXIS_POWER);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Reads a bit stream written by BitOutput from a byte array.
+ */
+class BitInput {
+	private static final String TAG = BitInput.class.getSimpleName();
+	private byte[] mData;
+	private int mPos; // next byte
+	private int mEnd;
+	private long mBits = 0; // buffered bits, right aligned
+	private int mCount = 0;
+
+	void set(byte[] data, int off, int len) {
+		mData = data;
+		mPos = off;
+		mEnd = off + len;
+		mBits = 0;
+		mCount = 0;
+	}
+
+	boolean readBit() {
+		return readBits(1) != 0;
+	}
+
+	/*
+	 * Reads n bits, 0 <= n <= 64. Reading past the end yields zero bits.
+	 */
+	long readBits(int n) {
+		if (n > 32) {
+			long high = readBits(n - 32);
+			return (high << 32) | readBits(32);
+		}
+		while (mCount < n) {
+			int b = mPos < mEnd ? mData[mPos++] & 0xff : 0;
+			mBits = (mBits << 8) | b;
+			mCount += 8;
+		}
+		mCount -= n;
+		return n == 0 ? 0 : (mBits >>> mCount) & (-1L >>> (64 - n));
+	}
+
+	long readVarLong() {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			long b = readBits(8);
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0 || shift >= 63) {
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Growable MSB-first bit stream used by the column encoders.
+ */
+class BitOutput {
+	private static final String TAG = BitOutput.class.getSimpleName();
+	private byte[] mData;
+	private int mLength = 0; // complete bytes in mData
+	private long mBits = 0; // pending bits, right aligned
+	private int mCount = 0; // number of pending bits (< 8 between calls)
+
+	BitOutput(int capacity) {
+		mData = new byte[Math.max(16, capacity)];
+	}
+
+	void reset() {
+		mLength = 0;
+		mBits = 0;
+		mCount = 0;
+	}
+
+	void writeBit(boolean bit) {
+		writeBits(bit ? 1 : 0, 1);
+	}
+
+	/*
+	 * Writes the low n bits of value, 0 <= n <= 64.
+	 */
+	void writeBits(long value, int n) {
+		if (n > 32) {
+			writeBits(value >>> 32, n - 32);
+			n = 32;
+		}
+		if (n == 0) {
+			return;
+		}
+		mBits = (mBits << n) | (value & (-1L >>> (64 - n)));
+		mCount += n;
+		if (mLength + 5 > mData.length) {
+			byte[] grown = new byte[mData.length * 2];
+			System.arraycopy(mData, 0, grown, 0, mLength);
+			mData = grown;
+		}
+		while (mCount >= 8) {
+			mCount -= 8;
+			mData[mLength++] = (byte) (mBits >>> mCount);
+		}
+	}
+
+	/*
+	 * Unsigned LEB128 varint.
+	 */
+	void writeVarLong(long value) {
+		while ((value & ~0x7fL) != 0) {
+			writeBits((value & 0x7f) | 0x80, 8);
+			value >>>= 7;
+		}
+		writeBits(value, 8);
+	}
+
+	/*
+	 * Pads the last byte with zero bits. Returns the length in bytes.
+	 */
+	int finish() {
+		if (mCount > 0) {
+			writeBits(0, 8 - mCount);
+		}
+		return mLength;
+	}
+
+	byte[] getData() {
+		return mData;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Column encodings shared by ColumnStoreWriter and ColumnStoreReader.
+ * Timestamps are delta-of-delta coded in variable-width buckets; values
+ * are either XOR coded doubles (lossless) or delta coded varints of the
+ * value quantized to a fixed resolution.
+ */
+final class ColumnCodec {
+	private static final String TAG = ColumnCodec.class.getSimpleName();
+
+	private ColumnCodec() {
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/*
+	 * ts[0] is stored in the block header; the first delta is coded as a
+	 * delta of delta against 0.
+	 */
+	static void encodeTimestamps(long[] ts, int n, BitOutput out) {
+		long prevDelta = 0;
+		for (int i = 1; i < n; i++) {
+			long delta = ts[i] - ts[i - 1];
+			long dod = zigzag(delta - prevDelta);
+			prevDelta = delta;
+			if (dod == 0) {
+				out.writeBits(0, 1);
+			} else if (dod < (1 << 7)) {
+				out.writeBits(0x2, 2);
+				out.writeBits(dod, 7);
+			} else if (dod < (1 << 9)) {
+				out.writeBits(0x6, 3);
+				out.writeBits(dod, 9);
+			} else if (dod < (1 << 12)) {
+				out.writeBits(0xe, 4);
+				out.writeBits(dod, 12);
+			} else {
+				out.writeBits(0xf, 4);
+				out.writeBits(dod, 64);
+			}
+		}
+	}
+
+	static void decodeTimestamps(BitInput in, long first, long[] ts, int n) {
+		long prevDelta = 0;
+		long prev = first;
+		ts[0] = first;
+		for (int i = 1; i < n; i++) {
+			long dod;
+			if (!in.readBit()) {
+				dod = 0;
+			} else if (!in.readBit()) {
+				dod = in.readBits(7);
+			} else if (!in.readBit()) {
+				dod = in.readBits(9);
+			} else if (!in.readBit()) {
+				dod = in.readBits(12);
+			} else {
+				dod = in.readBits(64);
+			}
+			prevDelta += unzigzag(dod);
+			prev += prevDelta;
+			ts[i] = prev;
+		}
+	}
+
+	static void encodeXor(double[] v, int n, BitOutput out) {
+		long prev = Double.doubleToRawLongBits(v[0]);
+		out.writeBits(prev, 64);
+		int prevLeading = -1;
+		int prevTrailing = 0;
+		for (int i = 1; i < n; i++) {
+			long bits = Double.doubleToRawLongBits(v[i]);
+			long xor = bits ^ prev;
+			prev = bits;
+			if (xor == 0) {
+				out.writeBits(0, 1);
+				continue;
+			}
+			int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+			int trailing = Long.numberOfTrailingZeros(xor);
+			if (prevLeading >= 0 && leading >= prevLeading
+					&& trailing >= prevTrailing) {
+				// fits in the previous meaningful window
+				out.writeBits(0x2, 2);
+				out.writeBits(xor >>> prevTrailing, 64 - prevLeading
+						- prevTrailing);
+			} else {
+				int length = 64 - leading - trailing;
+				out.writeBits(0x3, 2);
+				out.writeBits(leading, 5);
+				out.writeBits(length & 0x3f, 6); // 64 is stored as 0
+				out.writeBits(xor >>> trailing, length);
+				prevLeading = leading;
+				prevTrailing = trailing;
+			}
+		}
+	}
+
+	static void decodeXor(BitInput in, double[] v, int n) {
+		long prev = in.readBits(64);
+		v[0] = Double.longBitsToDouble(prev);
+		int leading = 0;
+		int trailing = 0;
+		for (int i = 1; i < n; i++) {
+			if (in.readBit()) {
+				if (in.readBit()) {
+					leading = (int) in.readBits(5);
+					int length = (int) in.readBits(6);
+					if (length == 0) {
+						length = 64;
+					}
+					trailing = 64 - leading - length;
+				}
+				prev ^= in.readBits(64 - leading - trailing) << trailing;
+			}
+			v[i] = Double.longBitsToDouble(prev);
+		}
+	}
+
+	static void encodeQuantized(double[] v, int n, double resolution,
+			BitOutput out) {
+		long prev = 0;
+		for (int i = 0; i < n; i++) {
+			long q = Math.round(v[i] / resolution);
+			out.writeVarLong(zigzag(q - prev));
+			prev = q;
+		}
+	}
+
+	static void decodeQuantized(BitInput in, double[] v, int n,
+			double resolution) {
+		long prev = 0;
+		for (int i = 0; i < n; i++) {
+			prev += unzigzag(in.readVarLong());
+			v[i] = prev * resolution;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads a file written by ColumnStoreWriter. Samples are decoded a block
+ * at a time into primitive columns and then returned sequentially, one by
+ * one with next() or in bulk with read(). The block index allows seeking
+ * by sample number or timestamp; for a file that was not closed properly
+ * the index is rebuilt by scanning the block headers.
+ */
+public class ColumnStoreReader {
+	private static final String TAG = ColumnStoreReader.class.getSimpleName();
+
+	private final RandomAccessFile mFile;
+	private final int mChannels;
+	private final int mBlockSize;
+	private final int mEncoding;
+	private final double mResolution;
+	// block index
+	private long[] mIndexOffset;
+	private long[] mIndexTime;
+	private long[] mIndexSample;
+	private int[] mIndexCount;
+	private int mBlocks;
+	// decoded block
+	private int mBlock = -1;
+	private int mLoaded = 0;
+	private int mPos = 0; // next sample within the block
+	private final long[] mTime;
+	private final double[][] mValue;
+	private byte[] mRaw = new byte[0];
+	private final BitInput mInput = new BitInput();
+
+	public ColumnStoreReader(File file) throws IOException {
+		mFile = new RandomAccessFile(file, "r");
+		try {
+			if (mFile.readInt() != ColumnStoreWriter.MAGIC
+					|| mFile.readInt() != ColumnStoreWriter.VERSION) {
+				throw new IOException("not a column store: " + file);
+			}
+			mChannels = mFile.readInt();
+			mBlockSize = mFile.readInt();
+			mEncoding = mFile.readInt();
+			mResolution = mFile.readDouble();
+			if (mChannels < 1 || mBlockSize < 1) {
+				throw new IOException("bad header: " + file);
+			}
+			mTime = new long[mBlockSize];
+			mValue = new double[mChannels][mBlockSize];
+			if (!readIndex()) {
+				scanIndex();
+			}
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+	}
+
+	public int getChannels() {
+		return mChannels;
+	}
+
+	public int getEncoding() {
+		return mEncoding;
+	}
+
+	public double getResolution() {
+		return mResolution;
+	}
+
+	public int getBlockCount() {
+		return mBlocks;
+	}
+
+	public long getSampleCount() {
+		return mBlocks == 0 ? 0 : mIndexSample[mBlocks - 1]
+				+ mIndexCount[mBlocks - 1];
+	}
+
+	/*
+	 * Moves to the next sample. Returns false at the end of the file.
+	 */
+	public boolean next() throws IOException {
+		if (mPos >= mLoaded && !loadBlock(mBlock + 1)) {
+			return false;
+		}
+		mPos++;
+		return true;
+	}
+
+	/*
+	 * Timestamp and values of the sample reached by next().
+	 */
+	public long getTimestamp() {
+		return mTime[mPos - 1];
+	}
+
+	public double getValue(int channel) {
+		return mValue[channel][mPos - 1];
+	}
+
+	/*
+	 * Reads up to len following samples into timestamps[off..] and
+	 * values[ch][off..]; either may be null. Returns the number read, 0 at
+	 * the end of the file.
+	 */
+	public int read(long[] timestamps, double[][] values, int off, int len)
+			throws IOException {
+		int total = 0;
+		while (total < len) {
+			if (mPos >= mLoaded && !loadBlock(mBlock + 1)) {
+				break;
+			}
+			int n = Math.min(len - total, mLoaded - mPos);
+			if (timestamps != null) {
+				System.arraycopy(mTime, mPos, timestamps, off + total, n);
+			}
+			if (values != null) {
+				for (int ch = 0; ch < mChannels; ch++) {
+					System.arraycopy(mValue[ch], mPos, values[ch], off + total,
+							n);
+				}
+			}
+			mPos += n;
+			total += n;
+		}
+		return total;
+	}
+
+	/*
+	 * Positions before sample number sample (0 is the first one).
+	 */
+	public void seekSample(long sample) throws IOException {
+		if (sample >= getSampleCount()) {
+			toEnd();
+			return;
+		}
+		int lo = 0;
+		int hi = mBlocks - 1;
+		while (lo < hi) { // last block starting at or before sample
+			int mid = (lo + hi + 1) >>> 1;
+			if (mIndexSample[mid] <= sample) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		loadBlock(lo);
+		mPos = (int) (Math.max(0, sample - mIndexSample[lo]));
+	}
+
+	/*
+	 * Positions before the first sample with a timestamp at or after time.
+	 */
+	public void seekTime(long time) throws IOException {
+		int lo = 0;
+		int hi = mBlocks;
+		while (lo < hi) { // first block starting at or after time
+			int mid = (lo + hi) >>> 1;
+			if (mIndexTime[mid] < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		// the block before may still hold samples at or after time
+		int block = Math.max(0, lo - 1);
+		if (!loadBlock(block)) {
+			toEnd();
+			return;
+		}
+		while (mPos < mLoaded && mTime[mPos] < time) {
+			mPos++;
+		}
+	}
+
+	public void close() throws IOException {
+		mFile.close();
+	}
+
+	private void toEnd() {
+		mBlock = mBlocks;
+		mLoaded = 0;
+		mPos = 0;
+	}
+
+	private boolean loadBlock(int block) throws IOException {
+		if (block >= mBlocks) {
+			toEnd();
+			return false;
+		}
+		mFile.seek(mIndexOffset[block]);
+		int length = mFile.readInt();
+		if (mRaw.length < length) {
+			mRaw = new byte[length];
+		}
+		mFile.readFully(mRaw, 0, length);
+		int n = getInt(mRaw, 0);
+		long first = getLong(mRaw, 4);
+		if (n < 1 || n > mBlockSize) {
+			throw new IOException("bad block " + block + " count=" + n);
+		}
+		int pos = 12;
+		for (int c = 0; c <= mChannels; c++) {
+			int len = getInt(mRaw, pos);
+			pos += 4;
+			if (len < 0 || pos + len > length) {
+				throw new IOException("bad block " + block + " column " + c);
+			}
+			mInput.set(mRaw, pos, len);
+			if (c == 0) {
+				ColumnCodec.decodeTimestamps(mInput, first, mTime, n);
+			} else if (mEncoding == ColumnStoreWriter.ENCODING_QUANTIZED) {
+				ColumnCodec.decodeQuantized(mInput, mValue[c - 1], n,
+						mResolution);
+			} else {
+				ColumnCodec.decodeXor(mInput, mValue[c - 1], n);
+			}
+			pos += len;
+		}
+		mBlock = block;
+		mLoaded = n;
+		mPos = 0;
+		return true;
+	}
+
+	private boolean readIndex() throws IOException {
+		long size = mFile.length();
+		if (size < ColumnStoreWriter.HEADER_SIZE
+				+ ColumnStoreWriter.TRAILER_SIZE) {
+			return false;
+		}
+		mFile.seek(size - ColumnStoreWriter.TRAILER_SIZE);
+		long indexOffset = mFile.readLong();
+		int blocks = mFile.readInt();
+		if (mFile.readInt() != ColumnStoreWriter.MAGIC
+				|| blocks < 0
+				|| indexOffset + (long) blocks
+						* ColumnStoreWriter.INDEX_ENTRY_SIZE
+						+ ColumnStoreWriter.TRAILER_SIZE != size) {
+			return false;
+		}
+		allocateIndex(blocks);
+		mFile.seek(indexOffset);
+		for (int i = 0; i < blocks; i++) {
+			mIndexOffset[i] = mFile.readLong();
+			mIndexTime[i] = mFile.readLong();
+			mIndexSample[i] = mFile.readLong();
+			mIndexCount[i] = mFile.readInt();
+		}
+		mBlocks = blocks;
+		return true;
+	}
+
+	private void scanIndex() throws IOException {
+		long size = mFile.length();
+		long offset = ColumnStoreWriter.HEADER_SIZE;
+		long sample = 0;
+		allocateIndex(16);
+		mBlocks = 0;
+		while (offset + 16 <= size) {
+			mFile.seek(offset);
+			int length = mFile.readInt();
+			int count = mFile.readInt();
+			long time = mFile.readLong();
+			if (length < 12 || count < 1 || count > mBlockSize
+					|| offset + 4 + length > size) {
+				break; // unfinished block or trailer
+			}
+			if (mBlocks == mIndexOffset.length) {
+				growIndex();
+			}
+			mIndexOffset[mBlocks] = offset;
+			mIndexTime[mBlocks] = time;
+			mIndexSample[mBlocks] = sample;
+			mIndexCount[mBlocks] = count;
+			mBlocks++;
+			sample += count;
+			offset += 4 + length;
+		}
+	}
+
+	private void allocateIndex(int size) {
+		mIndexOffset = new long[size];
+		mIndexTime = new long[size];
+		mIndexSample = new long[size];
+		mIndexCount = new int[size];
+	}
+
+	private void growIndex() {
+		int blocks = mIndexOffset.length;
+		long[] o = mIndexOffset;
+		long[] t = mIndexTime;
+		long[] s = mIndexSample;
+		int[] c = mIndexCount;
+		allocateIndex(blocks * 2);
+		System.arraycopy(o, 0, mIndexOffset, 0, blocks);
+		System.arraycopy(t, 0, mIndexTime, 0, blocks);
+		System.arraycopy(s, 0, mIndexSample, 0, blocks);
+		System.arraycopy(c, 0, mIndexCount, 0, blocks);
+	}
+
+	private static int getInt(byte[] b, int pos) {
+		return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+				| ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+	}
+
+	private static long getLong(byte[] b, int pos) {
+		return ((long) getInt(b, pos) << 32) | (getInt(b, pos + 4) & 0xffffffffL);
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming writer of timestamped multi-channel samples in a compact
+ * columnar file. Samples are collected into blocks of blockSize; each
+ * block holds a delta-of-delta coded timestamp column followed by one
+ * column per channel. An index of all blocks is appended on close() so
+ * ColumnStoreReader can seek by time or sample number.
+ *
+ * Layout (big endian):
+ *   header  MAGIC, VERSION, channels, blockSize, encoding, resolution
+ *   block   length, count, first timestamp, per column: length, bytes
+ *   index   per block: offset, first timestamp, first sample, count
+ *   trailer index offset, block count, MAGIC
+ */
+public class ColumnStoreWriter {
+	private static final String TAG = ColumnStoreWriter.class.getSimpleName();
+	final static int MAGIC = 0x414d4353; // "AMCS"
+	final static int VERSION = 1;
+	final static int HEADER_SIZE = 28;
+	final static int TRAILER_SIZE = 16;
+	final static int INDEX_ENTRY_SIZE = 28;
+	public final static int ENCODING_XOR = 0;
+	public final static int ENCODING_QUANTIZED = 1;
+	public final static int DEFAULT_BLOCK_SIZE = 1024;
+
+	private final DataOutputStream mOut;
+	private final int mChannels;
+	private final int mBlockSize;
+	private final int mEncoding;
+	private final double mResolution;
+	private long mPosition = 0;
+	private final long[] mTime;
+	private final double[][] mValue;
+	private int mCount = 0;
+	private long mSamples = 0;
+	private final BitOutput[] mColumns; // timestamps, then each channel
+	private final int[] mLengths;
+	// block index
+	private long[] mIndexOffset = new long[16];
+	private long[] mIndexTime = new long[16];
+	private long[] mIndexSample = new long[16];
+	private int[] mIndexCount = new int[16];
+	private int mBlocks = 0;
+	private boolean mClosed = false;
+
+	/*
+	 * Lossless XOR coding of the values.
+	 */
+	public ColumnStoreWriter(File file, int channels) throws IOException {
+		this(file, channels, DEFAULT_BLOCK_SIZE, ENCODING_XOR, 0);
+	}
+
+	/*
+	 * With ENCODING_QUANTIZED values are rounded to multiples of resolution,
+	 * which usually takes 1-3 bytes per value for sensor data.
+	 */
+	public ColumnStoreWriter(File file, int channels, int blockSize,
+			int encoding, double resolution) throws IOException {
+		if (channels < 1 || blockSize < 1) {
+			throw new IllegalArgumentException("channels=" + channels
+					+ " blockSize=" + blockSize);
+		}
+		if (encoding == ENCODING_QUANTIZED && !(resolution > 0)) {
+			throw new IllegalArgumentException("resolution=" + resolution);
+		}
+		mChannels = channels;
+		mBlockSize = blockSize;
+		mEncoding = encoding;
+		mResolution = resolution;
+		mTime = new long[blockSize];
+		mValue = new double[channels][blockSize];
+		mColumns = new BitOutput[channels + 1];
+		for (int c = 0; c <= channels; c++) {
+			mColumns[c] = new BitOutput(blockSize * 2);
+		}
+		mLengths = new int[channels + 1];
+		mOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 65536));
+		mOut.writeInt(MAGIC);
+		mOut.writeInt(VERSION);
+		mOut.writeInt(channels);
+		mOut.writeInt(blockSize);
+		mOut.writeInt(encoding);
+		mOut.writeDouble(resolution);
+		mPosition = HEADER_SIZE;
+	}
+
+	public int getChannels() {
+		return mChannels;
+	}
+
+	public long getSampleCount() {
+		return mSamples + mCount;
+	}
+
+	/*
+	 * Bytes written so far, not counting the block being collected.
+	 */
+	public long getSize() {
+		return mPosition;
+	}
+
+	/*
+	 * Adds one sample of all channels. Timestamps should not decrease;
+	 * their unit is up to the caller.
+	 */
+	public void add(long timestamp, double[] values) throws IOException {
+		mTime[mCount] = timestamp;
+		for (int ch = 0; ch < mChannels; ch++) {
+			mValue[ch][mCount] = values[ch];
+		}
+		if (++mCount == mBlockSize) {
+			flushBlock();
+		}
+	}
+
+	/*
+	 * Adds len samples given as columns, values[ch][off + i] being channel
+	 * ch of the sample at timestamps[off + i].
+	 */
+	public void add(long[] timestamps, double[][] values, int off, int len)
+			throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, mBlockSize - mCount);
+			System.arraycopy(timestamps, off, mTime, mCount, n);
+			for (int ch = 0; ch < mChannels; ch++) {
+				System.arraycopy(values[ch], off, mValue[ch], mCount, n);
+			}
+			mCount += n;
+			off += n;
+			len -= n;
+			if (mCount == mBlockSize) {
+				flushBlock();
+			}
+		}
+	}
+
+	/*
+	 * Writes the pending samples as a (short) block. Blocks are
+	 * self-contained, so a file that was never closed can still be read up
+	 * to the last flushed block.
+	 */
+	public void flush() throws IOException {
+		if (mCount > 0) {
+			flushBlock();
+		}
+		mOut.flush();
+	}
+
+	public void close() throws IOException {
+		if (mClosed) {
+			return;
+		}
+		mClosed = true;
+		try {
+			if (mCount > 0) {
+				flushBlock();
+			}
+			long indexOffset = mPosition;
+			for (int i = 0; i < mBlocks; i++) {
+				mOut.writeLong(mIndexOffset[i]);
+				mOut.writeLong(mIndexTime[i]);
+				mOut.writeLong(mIndexSample[i]);
+				mOut.writeInt(mIndexCount[i]);
+			}
+			mOut.writeLong(indexOffset);
+			mOut.writeInt(mBlocks);
+			mOut.writeInt(MAGIC);
+		} finally {
+			mOut.close();
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		int n = mCount;
+		// encode all columns first so the block length is known
+		int length = 4 + 8 + 4 * (mChannels + 1);
+		for (int c = 0; c <= mChannels; c++) {
+			BitOutput column = mColumns[c];
+			column.reset();
+			if (c == 0) {
+				ColumnCodec.encodeTimestamps(mTime, n, column);
+			} else if (mEncoding == ENCODING_QUANTIZED) {
+				ColumnCodec.encodeQuantized(mValue[c - 1], n, mResolution,
+						column);
+			} else {
+				ColumnCodec.encodeXor(mValue[c - 1], n, column);
+			}
+			mLengths[c] = column.finish();
+			length += mLengths[c];
+		}
+		addIndex(mPosition, mTime[0], mSamples, n);
+		mOut.writeInt(length);
+		mOut.writeInt(n);
+		mOut.writeLong(mTime[0]);
+		for (int c = 0; c <= mChannels; c++) {
+			mOut.writeInt(mLengths[c]);
+			mOut.write(mColumns[c].getData(), 0, mLengths[c]);
+		}
+		mPosition += 4 + length;
+		mSamples += n;
+		mCount = 0;
+	}
+
+	private void addIndex(long offset, long time, long sample, int count) {
+		if (mBlocks == mIndexOffset.length) {
+			int size = mBlocks * 2;
+			long[] o = new long[size];
+			long[] t = new long[size];
+			long[] s = new long[size];
+			int[] c = new int[size];
+			System.arraycopy(mIndexOffset, 0, o, 0, mBlocks);
+			System.arraycopy(mIndexTime, 0, t, 0, mBlocks);
+			System.arraycopy(mIndexSample, 0, s, 0, mBlocks);
+			System.arraycopy(mIndexCount, 0, c, 0, mBlocks);
+			mIndexOffset = o;
+			mIndexTime = t;
+			mIndexSample = s;
+			mIndexCount = c;
+		}
+		mIndexOffset[mBlocks] = offset;
+		mIndexTime[mBlocks] = time;
+		mIndexSample[mBlocks] = sample;
+		mIndexCount[mBlocks] = count;
+		mBlocks++;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Reduces a sample series to a bounded number of points for plotting.
+ * MODE_MINMAX keeps the minimum and maximum of each bucket, so spikes
+ * stay visible; MODE_LTTB (Largest-Triangle-Three-Buckets) keeps the
+ * points that best preserve the visual shape. Points are written to
+ * caller-owned arrays; x is the sample index within the input.
+ *
+ * An instance keeps a scratch buffer and is not thread safe.
+ */
+public class Decimator {
+	private static final String TAG = Decimator.class.getSimpleName();
+	public final static int MODE_MINMAX = 0;
+	public final static int MODE_LTTB = 1;
+
+	private double[] mScratch = new double[0];
+
+	/*
+	 * Decimates the current content of series (call refresh() first).
+	 * Returns the number of points written, at most min(targetPoints,
+	 * outX.length, outY.length).
+	 */
+	public int decimate(SampleSeries series, int targetPoints, int mode,
+			double[] outX, double[] outY) {
+		int size = series.size();
+		if (mScratch.length < size) {
+			mScratch = new double[size];
+		}
+		int n = series.copyTo(mScratch, 0);
+		return decimate(mScratch, 0, n, targetPoints, mode, outX, outY);
+	}
+
+	public int decimate(double[] src, int off, int len, int targetPoints,
+			int mode, double[] outX, double[] outY) {
+		int target = Math.min(targetPoints, Math.min(outX.length, outY.length));
+		if (target <= 0 || len <= 0) {
+			return 0;
+		}
+		if (len <= target) {
+			for (int i = 0; i < len; i++) {
+				outX[i] = i;
+				outY[i] = src[off + i];
+			}
+			return len;
+		}
+		if (mode == MODE_LTTB) {
+			return lttb(src, off, len, target, outX, outY);
+		}
+		return minMax(src, off, len, target, outX, outY);
+	}
+
+	private static int minMax(double[] src, int off, int len, int target,
+			double[] outX, double[] outY) {
+		int buckets = Math.max(1, target / 2);
+		int count = 0;
+		for (int b = 0; b < buckets; b++) {
+			int start = (int) ((long) b * len / buckets);
+			int end = (int) ((long) (b + 1) * len / buckets);
+			int min = start;
+			int max = start;
+			for (int i = start + 1; i < end; i++) {
+				double v = src[off + i];
+				if (v < src[off + min]) {
+					min = i;
+				} else if (v > src[off + max]) {
+					max = i;
+				}
+			}
+			int first = Math.min(min, max);
+			int second = Math.max(min, max);
+			outX[count] = first;
+			outY[count++] = src[off + first];
+			if (second != first && count < target) {
+				outX[count] = second;
+				outY[count++] = src[off + second];
+			}
+		}
+		return count;
+	}
+
+	private static int lttb(double[] src, int off, int len, int target,
+			double[] outX, double[] outY) {
+		if (target < 3) {
+			outX[0] = 0;
+			outY[0] = src[off];
+			if (target == 2) {
+				outX[1] = len - 1;
+				outY[1] = src[off + len - 1];
+			}
+			return target;
+		}
+		// the first and last points are kept; the rest is split into
+		// target - 2 buckets
+		double every = (double) (len - 2) / (target - 2);
+		int a = 0;
+		int count = 0;
+		outX[count] = 0;
+		outY[count++] = src[off];
+		for (int b = 0; b < target - 2; b++) {
+			// average of the next bucket
+			int avgStart = (int) ((b + 1) * every) + 1;
+			int avgEnd = Math.min((int) ((b + 2) * every) + 1, len);
+			double avgX = 0;
+			double avgY = 0;
+			for (int i = avgStart; i < avgEnd; i++) {
+				avgX += i;
+				avgY += src[off + i];
+			}
+			int avgLen = avgEnd - avgStart;
+			if (avgLen > 0) {
+				avgX /= avgLen;
+				avgY /= avgLen;
+			} else {
+				avgX = len - 1;
+				avgY = src[off + len - 1];
+			}
+
+			// point of this bucket forming the largest triangle with the
+			// previously selected point and that average
+			int start = (int) (b * every) + 1;
+			int end = (int) ((b + 1) * every) + 1;
+			double ax = a;
+			double ay = src[off + a];
+			double maxArea = -1;
+			int next = start;
+			for (int i = start; i < end; i++) {
+				double area = Math.abs((ax - avgX) * (src[off + i] - ay)
+						- (ax - i) * (avgY - ay));
+				if (area > maxArea) {
+					maxArea = area;
+					next = i;
+				}
+			}
+			outX[count] = next;
+			outY[count++] = src[off + next];
+			a = next;
+		}
+		outX[count] = len - 1;
+		outY[count++] = src[off + len - 1];
+		return count;
+	}
+}
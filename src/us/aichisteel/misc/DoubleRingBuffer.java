@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Fixed-capacity ring of primitive samples. Once full, each add overwrites
+ * the oldest sample, so append and eviction are O(1) without allocation.
+ * Index 0 is always the oldest retained sample.
+ *
+ * A FrameRingBuffer of one-value frames: one thread adds samples, any
+ * number of threads may read concurrently without locks, and every copy is
+ * a consistent snapshot.
+ */
+public class DoubleRingBuffer {
+	private static final String TAG = DoubleRingBuffer.class.getSimpleName();
+
+	private final FrameRingBuffer mRing;
+	private final double[] mValue = new double[1]; // writer only
+
+	public DoubleRingBuffer(int capacity) {
+		mRing = new FrameRingBuffer(1, capacity);
+	}
+
+	public int getCapacity() {
+		return mRing.getCapacity();
+	}
+
+	/*
+	 * Takes effect with the next add(), on the writer thread. The newest
+	 * samples that still fit are kept.
+	 */
+	public void setCapacity(int capacity) {
+		mRing.setCapacity(capacity);
+	}
+
+	public int size() {
+		return mRing.size();
+	}
+
+	public void clear() {
+		mRing.clear();
+	}
+
+	/*
+	 * Sequence number of the next sample; sample numbers keep increasing
+	 * across clear() and setCapacity().
+	 */
+	public long getSequence() {
+		return mRing.getSequence();
+	}
+
+	public long getFirstSequence() {
+		return mRing.getFirstSequence();
+	}
+
+	public void add(double value) {
+		mValue[0] = value;
+		mRing.add(mValue, 0);
+	}
+
+	/*
+	 * Returns the i-th retained sample, 0 being the oldest. Not validated
+	 * against concurrent writes; use the copy methods for snapshots.
+	 */
+	public double get(int i) {
+		return mRing.get(0, i);
+	}
+
+	public double getLatest() {
+		return mRing.getLatest(0);
+	}
+
+	public int copyTo(double[] dst) {
+		return copyTo(dst, 0, dst.length);
+	}
+
+	/*
+	 * Copies the newest min(size, len) samples, oldest first, into dst
+	 * starting at off. Returns the number of samples copied.
+	 */
+	public int copyTo(double[] dst, int off, int len) {
+		return mRing.copyFrames(dst, off, len);
+	}
+
+	/*
+	 * Copies up to len samples starting at sequence number seq (or the
+	 * oldest retained one, if later). Returns the number copied.
+	 */
+	public int copyFrom(long seq, double[] dst, int off, int len) {
+		return mRing.copyFramesFrom(seq, dst, off, len);
+	}
+
+	/*
+	 * Copies up to len samples from the cursor position and advances it.
+	 */
+	public int read(SampleCursor cursor, double[] dst, int off, int len) {
+		return mRing.read(cursor, dst, off, len);
+	}
+
+	/*
+	 * Returns a view reading the ring in place; see SampleSeries.
+	 */
+	public SampleSeries newView() {
+		return mRing.newView(0);
+	}
+}
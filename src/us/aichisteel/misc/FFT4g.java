@@ -7,23 +7,71 @@ import static java.lang.Math.atan;
 import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class FFT4g {
 	private static final String TAG = FFT4g.class.getSimpleName();
-	private int[] ip;
-	private double[] w;
+	private int[] ip; // ip[0], ip[1]: table sizes; the rest is bitrv2 scratch
+	private double[] w; // twiddle and cosine tables, shared and read-only
 	private int n;
 
+	// tables of each size are built once and shared by all instances
+	static final class Plan {
+		final double[] w;
+		final int nw;
+		final int nc;
+
+		Plan(double[] w, int nw, int nc) {
+			this.w = w;
+			this.nw = nw;
+			this.nc = nc;
+		}
+	}
+
+	private static final Map<Integer, Plan> sPlans = new HashMap<Integer, Plan>();
+
 	public FFT4g(int n) {
 		this.n = n;
 		ip = new int[2+(int)Math.sqrt((double)n/2.0)+1];
-		w = new double[n/2];
+		Plan plan = getPlan(n);
+		w = plan.w;
+		ip[0] = plan.nw;
+		ip[1] = plan.nc;
+	}
+
+	private FFT4g(int n, double[] w) {
+		this.n = n;
+		ip = new int[2+(int)Math.sqrt((double)n/2.0)+1];
+		this.w = w;
 		ip[0] = 0;
 	}
 
-	public void rdft(int isgn, double[] a)
+	static Plan getPlan(int n) {
+		synchronized (sPlans) {
+			Plan plan = sPlans.get(n);
+			if (plan == null) {
+				FFT4g builder = new FFT4g(n, new double[n/2]);
+				builder.makeTables();
+				plan = new Plan(builder.w, builder.ip[0], builder.ip[1]);
+				sPlans.put(n, plan);
+			}
+			return plan;
+		}
+	}
+
+	/*
+	 * Drops the shared tables; instances keep the ones they hold.
+	 */
+	public static void clearPlanCache() {
+		synchronized (sPlans) {
+			sPlans.clear();
+		}
+	}
+
+	private void makeTables()
 	{
 	    int nw, nc;
-	    double xi;
 
 	    nw = ip[0];
 	    if (n > (nw << 2)) {
@@ -35,6 +83,15 @@ public class FFT4g {
 	        nc = n >> 2;
 	        makect(nc, w, nw);
 	    }
+	}
+
+	public void rdft(int isgn, double[] a)
+	{
+	    int nw, nc;
+	    double xi;
+
+	    nw = ip[0];
+	    nc = ip[1];
 	    if (isgn >= 0) {
 	        if (n > 4) {
 	            bitrv2(n, a);
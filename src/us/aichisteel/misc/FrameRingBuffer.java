@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Fixed-capacity history of frames of frameSize values. Once full, each add
+ * overwrites the oldest frame, so append and eviction are O(1) without
+ * allocation. DoubleRingBuffer and Axis3RingBuffer are built on it.
+ *
+ * Frames are stored either interleaved, frame after frame in one flat
+ * array, so that whole frames copy in bulk, or planar, one array per value
+ * index (struct of arrays), so that one value index copies in bulk as a
+ * time series. Both layouts support every copy; the other kind is gathered
+ * value by value.
+ *
+ * One thread adds frames; any number of threads may read concurrently
+ * without locks. Frames are numbered by a monotonic sequence that the
+ * writer publishes after storing each frame. Readers copy a range and then
+ * drop whatever the writer may have overwritten meanwhile, so every copy
+ * is a consistent snapshot and the writer never blocks. The copied values
+ * are ordered before the sequence is read again by a volatile write, so
+ * this also holds on weakly ordered CPUs such as ARM.
+ */
+public class FrameRingBuffer {
+	private static final String TAG = FrameRingBuffer.class.getSimpleName();
+	private final static int COPY_FRAME = 0;
+
+	private static final class Store {
+		final int capacity;
+		final long first; // oldest frame the store was created with
+		// interleaved: one row of frames; planar: one row per value index.
+		// Either way with a spare slot for the frame being written.
+		final double[][] data;
+
+		Store(int capacity, long first, int frameSize, boolean planar) {
+			this.capacity = capacity;
+			this.first = first;
+			if (planar) {
+				this.data = new double[frameSize][capacity + 1];
+			} else {
+				this.data = new double[1][(capacity + 1) * frameSize];
+			}
+		}
+	}
+
+	private final int mFrameSize;
+	private final boolean mPlanar;
+	private volatile Store mStore;
+	private volatile long mSequence = 0; // number of frames ever added
+	private volatile long mClearSequence = 0;
+	private volatile int mRequestedCapacity;
+	// written by readers between a copy and its check; see fence()
+	private volatile int mFence;
+
+	/*
+	 * Interleaved layout, for frames that are read whole.
+	 */
+	public FrameRingBuffer(int frameSize, int capacity) {
+		this(frameSize, capacity, false);
+	}
+
+	/*
+	 * planar selects one array per value index, for frames that are read
+	 * as separate series.
+	 */
+	public FrameRingBuffer(int frameSize, int capacity, boolean planar) {
+		mFrameSize = frameSize;
+		mPlanar = planar;
+		mRequestedCapacity = Math.max(1, capacity);
+		mStore = new Store(mRequestedCapacity, 0, frameSize, planar);
+	}
+
+	public int getFrameSize() {
+		return mFrameSize;
+	}
+
+	public int getCapacity() {
+		return mRequestedCapacity;
+	}
+
+	/*
+	 * Takes effect with the next add(), on the writer thread. The newest
+	 * frames that still fit are kept.
+	 */
+	public void setCapacity(int capacity) {
+		mRequestedCapacity = Math.max(1, capacity);
+	}
+
+	public int size() {
+		long end = mSequence;
+		return (int) (end - firstValid(end, mStore));
+	}
+
+	public void clear() {
+		mClearSequence = mSequence;
+	}
+
+	/*
+	 * Sequence number of the next frame; frame numbers keep increasing
+	 * across clear() and setCapacity().
+	 */
+	public long getSequence() {
+		return mSequence;
+	}
+
+	public long getFirstSequence() {
+		long end = mSequence;
+		return firstValid(end, mStore);
+	}
+
+	/*
+	 * Appends frame[off] .. frame[off + getFrameSize() - 1].
+	 */
+	public void add(double[] frame, int off) {
+		Store s = mStore;
+		if (mRequestedCapacity != s.capacity) {
+			s = resize(s);
+		}
+		long seq = mSequence;
+		int slot = (int) (seq % (s.capacity + 1));
+		// a loop beats arraycopy for the short frames of the sample rings
+		if (mPlanar) {
+			double[][] data = s.data;
+			for (int i = 0; i < data.length; i++) {
+				data[i][slot] = frame[off + i];
+			}
+		} else {
+			double[] data = s.data[0];
+			int pos = slot * mFrameSize;
+			for (int i = 0; i < mFrameSize; i++) {
+				data[pos + i] = frame[off + i];
+			}
+		}
+		mSequence = seq + 1;
+	}
+
+	/*
+	 * Returns value index of the i-th retained frame, 0 being the oldest.
+	 * Not validated against concurrent writes; use the copy methods for
+	 * snapshots.
+	 */
+	public double get(int index, int i) {
+		Store s = mStore;
+		long end = mSequence;
+		long first = firstValid(end, s);
+		if (i < 0 || first + i >= end) {
+			throw new IndexOutOfBoundsException("index=" + i + " size="
+					+ (end - first));
+		}
+		return value(s, (int) ((first + i) % (s.capacity + 1)), index);
+	}
+
+	/*
+	 * Returns value index of the newest frame, validated like a copy.
+	 */
+	public double getLatest(int index) {
+		for (;;) {
+			Store s = mStore;
+			long end = mSequence;
+			if (end <= firstValid(end, s)) {
+				throw new IndexOutOfBoundsException("empty");
+			}
+			double value = value(s, (int) ((end - 1) % (s.capacity + 1)),
+					index);
+			fence();
+			if (s == mStore && mSequence - s.capacity < end) {
+				return value;
+			}
+		}
+	}
+
+	/*
+	 * Copies values index .. index + count - 1 of the newest frame into dst
+	 * as one snapshot. Returns false, copying nothing, if the ring is
+	 * empty.
+	 */
+	public boolean copyLatest(int index, int count, double[] dst, int off) {
+		for (;;) {
+			Store s = mStore;
+			long end = mSequence;
+			if (end <= firstValid(end, s)) {
+				return false;
+			}
+			int slot = (int) ((end - 1) % (s.capacity + 1));
+			for (int i = 0; i < count; i++) {
+				dst[off + i] = value(s, slot, index + i);
+			}
+			fence();
+			if (s == mStore && mSequence - s.capacity < end) {
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * Returns the sum of (value - offset)^2 over values index .. index +
+	 * count - 1 of the newest frame, read as one snapshot without copying;
+	 * offset is indexed like a frame. Returns 0 if the ring is empty.
+	 */
+	public double sumOfSquaresLatest(int index, int count, double[] offset) {
+		for (;;) {
+			Store s = mStore;
+			long end = mSequence;
+			if (end <= firstValid(end, s)) {
+				return 0;
+			}
+			int slot = (int) ((end - 1) % (s.capacity + 1));
+			double sum = 0;
+			for (int i = index; i < index + count; i++) {
+				double value = value(s, slot, i) - offset[i];
+				sum += value * value;
+			}
+			fence();
+			if (s == mStore && mSequence - s.capacity < end) {
+				return sum;
+			}
+		}
+	}
+
+	/*
+	 * Copies the newest min(size, frames) whole frames, oldest first, into
+	 * dst starting at off. Returns the number of frames copied.
+	 */
+	public int copyFrames(double[] dst, int off, int frames) {
+		return copy(-1, frames, COPY_FRAME, dst, null, off, null);
+	}
+
+	/*
+	 * Copies up to frames whole frames starting at sequence number seq (or
+	 * the oldest retained one, if later).
+	 */
+	public int copyFramesFrom(long seq, double[] dst, int off, int frames) {
+		return copy(Math.max(0, seq), frames, COPY_FRAME, dst, null, off,
+				null);
+	}
+
+	/*
+	 * Copies up to frames whole frames from the cursor position and
+	 * advances it.
+	 */
+	public int read(SampleCursor cursor, double[] dst, int off, int frames) {
+		return copy(Math.max(0, cursor.getNext()), frames, COPY_FRAME, dst,
+				null, off, cursor);
+	}
+
+	/*
+	 * Copies value index of the newest min(size, len) frames, oldest first,
+	 * into dst starting at off. Returns the number of values copied.
+	 */
+	public int copySeries(int index, double[] dst, int off, int len) {
+		return copy(-1, len, index + 1, dst, null, off, null);
+	}
+
+	public int copySeriesFrom(long seq, int index, double[] dst, int off,
+			int len) {
+		return copy(Math.max(0, seq), len, index + 1, dst, null, off, null);
+	}
+
+	/*
+	 * Copies values 0 .. count - 1 of the newest min(size, len) frames into
+	 * dst[0] .. dst[count - 1] in one snapshot, so all series cover the
+	 * same frames. Returns the number of frames copied.
+	 */
+	public int copySeries(int count, double[][] dst, int off, int len) {
+		return copy(-1, len, -count, null, dst, off, null);
+	}
+
+	/*
+	 * Same as above, from the cursor position; advances the cursor.
+	 */
+	public int readSeries(SampleCursor cursor, int count, double[][] dst,
+			int off, int len) {
+		return copy(Math.max(0, cursor.getNext()), len, -count, null, dst,
+				off, cursor);
+	}
+
+	/*
+	 * Returns a view of value index over time, reading the ring in place;
+	 * see SampleSeries.
+	 */
+	public SampleSeries newView(int index) {
+		return new View(index);
+	}
+
+	private final class View implements SampleSeries {
+		private final int mIndex;
+		private Store mViewStore;
+		private long mFirst;
+		private int mSize;
+
+		View(int index) {
+			mIndex = index;
+			refresh();
+		}
+
+		@Override
+		public void refresh() {
+			Store s = mStore;
+			long end = mSequence;
+			mFirst = firstValid(end, s);
+			mSize = (int) (end - mFirst);
+			mViewStore = s;
+		}
+
+		@Override
+		public int size() {
+			return mSize;
+		}
+
+		@Override
+		public long getFirstSequence() {
+			return mFirst;
+		}
+
+		@Override
+		public double get(int i) {
+			if (i < 0 || i >= mSize) {
+				throw new IndexOutOfBoundsException("index=" + i + " size="
+						+ mSize);
+			}
+			return value(mViewStore,
+					(int) ((mFirst + i) % (mViewStore.capacity + 1)), mIndex);
+		}
+
+		@Override
+		public boolean isIntact() {
+			fence(); // after the get() calls being checked
+			return mSize == 0 || mSequence - mViewStore.capacity <= mFirst;
+		}
+
+		@Override
+		public int copyTo(double[] dst, int off) {
+			return copy(mFirst, mSize, mIndex + 1, dst, null, off, null);
+		}
+	}
+
+	private long firstValid(long end, Store s) {
+		return Math.max(Math.max(end - s.capacity, s.first), mClearSequence);
+	}
+
+	private double value(Store s, int slot, int index) {
+		if (mPlanar) {
+			return s.data[index][slot];
+		}
+		return s.data[0][slot * mFrameSize + index];
+	}
+
+	/*
+	 * from < 0 selects the newest len frames. what is 1 + the value index
+	 * of one series, COPY_FRAME for whole frames into dst, or -count for
+	 * values 0 .. count - 1 into the rows of dstAll.
+	 */
+	private int copy(long from, int len, int what, double[] dst,
+			double[][] dstAll, int off, SampleCursor cursor) {
+		for (;;) {
+			Store s = mStore;
+			long end = mSequence;
+			long first = firstValid(end, s);
+			if (from >= 0) {
+				first = Math.max(first, from);
+			} else {
+				first = Math.max(first, end - len);
+			}
+			int n = (int) Math.max(0, Math.min(len, end - first));
+			int start = (int) (first % (s.capacity + 1));
+			if (what == COPY_FRAME) {
+				copyFrames(s, start, n, dst, off);
+			} else if (what < 0) {
+				for (int v = 0; v < -what; v++) {
+					copySeries(s, start, n, v, dstAll[v], off);
+				}
+			} else {
+				copySeries(s, start, n, what - 1, dst, off);
+			}
+			fence();
+			if (s != mStore) {
+				continue; // resized while copying
+			}
+			// drop frames the writer may have overwritten meanwhile
+			long lost = mSequence - s.capacity - first;
+			if (lost > 0) {
+				int k = (int) Math.min(n, lost);
+				if (what < 0) {
+					for (int v = 0; v < -what; v++) {
+						System.arraycopy(dstAll[v], off + k, dstAll[v], off,
+								n - k);
+					}
+				} else {
+					int unit = what == COPY_FRAME ? mFrameSize : 1;
+					System.arraycopy(dst, off + k * unit, dst, off, (n - k)
+							* unit);
+				}
+				n -= k;
+				first += k;
+			}
+			if (cursor != null) {
+				cursor.advance(first, n);
+			}
+			return n;
+		}
+	}
+
+	/*
+	 * Keeps the plain loads of a copy from moving past the following read
+	 * of mSequence. A volatile read alone only orders later accesses; a
+	 * volatile write orders all earlier ones and cannot pass a later
+	 * volatile read.
+	 */
+	private void fence() {
+		mFence = 0;
+	}
+
+	// copies n whole frames from slot start on into dst
+	private void copyFrames(Store s, int start, int n, double[] dst, int off) {
+		int size = s.capacity + 1;
+		if (!mPlanar) {
+			int part = Math.min(n, size - start);
+			System.arraycopy(s.data[0], start * mFrameSize, dst, off, part
+					* mFrameSize);
+			System.arraycopy(s.data[0], 0, dst, off + part * mFrameSize,
+					(n - part) * mFrameSize);
+			return;
+		}
+		for (int i = 0, pos = start; i < n; i++) {
+			for (int v = 0; v < mFrameSize; v++) {
+				dst[off + i * mFrameSize + v] = s.data[v][pos];
+			}
+			if (++pos == size) {
+				pos = 0;
+			}
+		}
+	}
+
+	// copies value index of n frames from slot start on into dst
+	private void copySeries(Store s, int start, int n, int index,
+			double[] dst, int off) {
+		int size = s.capacity + 1;
+		if (mPlanar || mFrameSize == 1) {
+			double[] row = s.data[mPlanar ? index : 0];
+			int part = Math.min(n, size - start);
+			System.arraycopy(row, start, dst, off, part);
+			System.arraycopy(row, 0, dst, off + part, n - part);
+			return;
+		}
+		double[] data = s.data[0];
+		for (int i = 0, pos = start; i < n; i++) {
+			dst[off + i] = data[pos * mFrameSize + index];
+			if (++pos == size) {
+				pos = 0;
+			}
+		}
+	}
+
+	private Store resize(Store old) {
+		int capacity = mRequestedCapacity;
+		long end = mSequence;
+		long first = Math.max(firstValid(end, old), end - capacity);
+		Store s = new Store(capacity, first, mFrameSize, mPlanar);
+		for (long seq = first; seq < end; seq++) {
+			int from = (int) (seq % (old.capacity + 1));
+			int to = (int) (seq % (capacity + 1));
+			if (mPlanar) {
+				for (int v = 0; v < mFrameSize; v++) {
+					s.data[v][to] = old.data[v][from];
+				}
+			} else {
+				System.arraycopy(old.data[0], from * mFrameSize, s.data[0],
+						to * mFrameSize, mFrameSize);
+			}
+		}
+		mStore = s;
+		return s;
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Bank of streaming Goertzel detectors, each tracking the amplitude and
+ * phase of one frequency over consecutive blocks of samples. A sample
+ * costs one multiply-add per tone, so a few known tones (mains, drive
+ * frequencies) are far cheaper to follow than a full spectrum.
+ *
+ * Frequencies need not fall on an FFT bin. For a tone A cos(2 pi f t +
+ * phi) the detector reports A and phi, the phase being relative to the
+ * first sample of the block. Tones are added before samples are pushed;
+ * results may be read from any thread.
+ */
+public class GoertzelBank implements SampleSink {
+	private static final String TAG = GoertzelBank.class.getSimpleName();
+
+	private double dSampleRate; // sampling rate [Hz]
+	private int mTones = 0;
+	private double[] mFreq = new double[0];
+	private int[] mBlock = new int[0];
+	private double[] mCoeff = new double[0]; // 2 cos(w)
+	private double[] mCos = new double[0];
+	private double[] mSin = new double[0];
+	private double[] mCosEnd = new double[0]; // cos(w (N - 1))
+	private double[] mSinEnd = new double[0];
+	// running state
+	private double[] mS1 = new double[0];
+	private double[] mS2 = new double[0];
+	private int[] mCount = new int[0];
+	// results, guarded by mResultLock
+	private final Object mResultLock = new Object();
+	private double[] mAmplitude = new double[0];
+	private double[] mPhase = new double[0];
+	private long[] mUpdates = new long[0];
+
+	// sampleRate [Hz]; tones are given in Hz as well
+	public GoertzelBank(double sampleRate) {
+		dSampleRate = sampleRate;
+	}
+
+	/*
+	 * Adds a detector for freq [Hz] integrating blockLength samples per
+	 * result, and returns its index. Frequency resolution is about
+	 * sampleRate / blockLength.
+	 */
+	public int addTone(double freq, int blockLength) {
+		if (blockLength < 2 || !(freq >= 0) || freq > dSampleRate / 2) {
+			throw new IllegalArgumentException("freq=" + freq + " block="
+					+ blockLength);
+		}
+		synchronized (mResultLock) {
+			int i = mTones;
+			grow(i + 1);
+			double w = 2 * Math.PI * freq / dSampleRate;
+			mFreq[i] = freq;
+			mBlock[i] = blockLength;
+			mCos[i] = Math.cos(w);
+			mSin[i] = Math.sin(w);
+			mCoeff[i] = 2 * mCos[i];
+			mCosEnd[i] = Math.cos(w * (blockLength - 1));
+			mSinEnd[i] = Math.sin(w * (blockLength - 1));
+			mTones = i + 1;
+			return i;
+		}
+	}
+
+	public int getToneCount() {
+		return mTones;
+	}
+
+	public double getFrequency(int tone) {
+		return mFreq[tone];
+	}
+
+	public int getBlockLength(int tone) {
+		return mBlock[tone];
+	}
+
+	/*
+	 * Restarts every block and clears the results.
+	 */
+	public void reset() {
+		synchronized (mResultLock) {
+			for (int i = 0; i < mTones; i++) {
+				mS1[i] = 0;
+				mS2[i] = 0;
+				mCount[i] = 0;
+				mAmplitude[i] = 0;
+				mPhase[i] = 0;
+				mUpdates[i] = 0;
+			}
+		}
+	}
+
+	/*
+	 * Returns true if any tone completed a block with this sample.
+	 */
+	public boolean push(double value) {
+		boolean done = false;
+		for (int i = 0; i < mTones; i++) {
+			double s = value + mCoeff[i] * mS1[i] - mS2[i];
+			mS2[i] = mS1[i];
+			mS1[i] = s;
+			if (++mCount[i] == mBlock[i]) {
+				finishBlock(i);
+				done = true;
+			}
+		}
+		return done;
+	}
+
+	/*
+	 * Returns the number of tone blocks completed.
+	 */
+	@Override
+	public int push(double[] a, int off, int len) {
+		int count = 0;
+		for (int i = 0; i < mTones; i++) {
+			// one tone at a time keeps its state in registers
+			double coeff = mCoeff[i];
+			double s1 = mS1[i];
+			double s2 = mS2[i];
+			int n = mCount[i];
+			int block = mBlock[i];
+			for (int j = off; j < off + len; j++) {
+				double s = a[j] + coeff * s1 - s2;
+				s2 = s1;
+				s1 = s;
+				if (++n == block) {
+					mS1[i] = s1;
+					mS2[i] = s2;
+					finishBlock(i);
+					s1 = 0;
+					s2 = 0;
+					n = 0;
+					count++;
+				}
+			}
+			mS1[i] = s1;
+			mS2[i] = s2;
+			mCount[i] = n;
+		}
+		return count;
+	}
+
+	/*
+	 * Amplitude of the tone over the last complete block, in input units.
+	 */
+	public double getAmplitude(int tone) {
+		synchronized (mResultLock) {
+			return mAmplitude[tone];
+		}
+	}
+
+	/*
+	 * Phase [rad] of the tone over the last complete block.
+	 */
+	public double getPhase(int tone) {
+		synchronized (mResultLock) {
+			return mPhase[tone];
+		}
+	}
+
+	/*
+	 * Number of blocks completed for the tone.
+	 */
+	public long getUpdateCount(int tone) {
+		synchronized (mResultLock) {
+			return mUpdates[tone];
+		}
+	}
+
+	/*
+	 * Copies the amplitudes of all tones into dst and returns the count.
+	 */
+	public int getAmplitudes(double[] dst) {
+		synchronized (mResultLock) {
+			int n = Math.min(dst.length, mTones);
+			System.arraycopy(mAmplitude, 0, dst, 0, n);
+			return n;
+		}
+	}
+
+	public int getPhases(double[] dst) {
+		synchronized (mResultLock) {
+			int n = Math.min(dst.length, mTones);
+			System.arraycopy(mPhase, 0, dst, 0, n);
+			return n;
+		}
+	}
+
+	private void finishBlock(int i) {
+		// y = s1 - e^(-jw) s2 equals e^(jw(N-1)) * sum x[n] e^(-jwn)
+		double re = mS1[i] - mCos[i] * mS2[i];
+		double im = mSin[i] * mS2[i];
+		double xr = re * mCosEnd[i] + im * mSinEnd[i];
+		double xi = im * mCosEnd[i] - re * mSinEnd[i];
+		int n = mBlock[i];
+		boolean edge = mFreq[i] == 0 || 2 * mFreq[i] == dSampleRate;
+		double scale = edge ? 1.0 / n : 2.0 / n;
+		synchronized (mResultLock) {
+			mAmplitude[i] = Math.sqrt(xr * xr + xi * xi) * scale;
+			mPhase[i] = Math.atan2(xi, xr);
+			mUpdates[i]++;
+		}
+		mS1[i] = 0;
+		mS2[i] = 0;
+		mCount[i] = 0;
+	}
+
+	private void grow(int size) {
+		if (size <= mFreq.length) {
+			return;
+		}
+		int capacity = Math.max(4, mFreq.length * 2);
+		mFreq = copyOf(mFreq, capacity);
+		mCoeff = copyOf(mCoeff, capacity);
+		mCos = copyOf(mCos, capacity);
+		mSin = copyOf(mSin, capacity);
+		mCosEnd = copyOf(mCosEnd, capacity);
+		mSinEnd = copyOf(mSinEnd, capacity);
+		mS1 = copyOf(mS1, capacity);
+		mS2 = copyOf(mS2, capacity);
+		mAmplitude = copyOf(mAmplitude, capacity);
+		mPhase = copyOf(mPhase, capacity);
+		int[] block = new int[capacity];
+		System.arraycopy(mBlock, 0, block, 0, mTones);
+		mBlock = block;
+		int[] count = new int[capacity];
+		System.arraycopy(mCount, 0, count, 0, mTones);
+		mCount = count;
+		long[] updates = new long[capacity];
+		System.arraycopy(mUpdates, 0, updates, 0, mTones);
+		mUpdates = updates;
+	}
+
+	private static double[] copyOf(double[] a, int size) {
+		double[] b = new double[size];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Statistics of one channel updated in O(1) per sample, both over the
+ * whole session and over a sliding window of the most recent samples.
+ * Mean and variance use Welford's update (with removal for the window);
+ * window extremes come from monotonic deques.
+ *
+ * One thread adds samples. Other threads copy consistent values with
+ * getSession()/getWindow(), which retry while an update is in progress
+ * instead of locking. setWindow() and reset() are applied by the next
+ * add().
+ */
+public class RunningStatistics {
+	private static final String TAG = RunningStatistics.class.getSimpleName();
+
+	// session, writer only
+	private long mCount = 0;
+	private double mMean = 0;
+	private double mM2 = 0;
+	private double mMin = Double.NaN;
+	private double mMax = Double.NaN;
+
+	// window, writer only
+	private double[] mWindow;
+	private long mSequence = 0; // samples added to the window
+	private int mWinCount = 0;
+	private double mWinMean = 0;
+	private double mWinM2 = 0;
+	private int mSinceRecompute = 0;
+	private long[] mMinQueue; // sequence numbers with increasing values
+	private int mMinHead = 0;
+	private int mMinSize = 0;
+	private long[] mMaxQueue; // sequence numbers with decreasing values
+	private int mMaxHead = 0;
+	private int mMaxSize = 0;
+
+	private volatile int mRequestedWindow;
+	private volatile boolean mResetRequested = false;
+
+	// published copy, guarded by mVersion (odd while being written)
+	private volatile int mVersion = 0;
+	private volatile long mPubCount = 0;
+	private volatile double mPubMean = 0;
+	private volatile double mPubM2 = 0;
+	private volatile double mPubMin = Double.NaN;
+	private volatile double mPubMax = Double.NaN;
+	private volatile long mPubWinCount = 0;
+	private volatile double mPubWinMean = 0;
+	private volatile double mPubWinM2 = 0;
+	private volatile double mPubWinMin = Double.NaN;
+	private volatile double mPubWinMax = Double.NaN;
+
+	public RunningStatistics(int window) {
+		mRequestedWindow = Math.max(1, window);
+		allocateWindow(mRequestedWindow);
+	}
+
+	public int getWindowSize() {
+		return mRequestedWindow;
+	}
+
+	/*
+	 * Changes the window length. The newest samples that still fit stay in
+	 * the window.
+	 */
+	public void setWindow(int window) {
+		mRequestedWindow = Math.max(1, window);
+	}
+
+	/*
+	 * Clears both the session and the window.
+	 */
+	public void reset() {
+		mResetRequested = true;
+	}
+
+	public void add(double value) {
+		if (mResetRequested) {
+			mResetRequested = false;
+			mCount = 0;
+			mMean = 0;
+			mM2 = 0;
+			mMin = Double.NaN;
+			mMax = Double.NaN;
+			allocateWindow(mRequestedWindow);
+		} else if (mRequestedWindow != mWindow.length) {
+			resizeWindow(mRequestedWindow);
+		}
+
+		// session
+		mCount++;
+		double delta = value - mMean;
+		mMean += delta / mCount;
+		mM2 += delta * (value - mMean);
+		if (mCount == 1 || value < mMin) {
+			mMin = value;
+		}
+		if (mCount == 1 || value > mMax) {
+			mMax = value;
+		}
+
+		// window
+		int size = mWindow.length;
+		int pos = (int) (mSequence % size);
+		if (mWinCount < size) {
+			mWinCount++;
+			double d = value - mWinMean;
+			mWinMean += d / mWinCount;
+			mWinM2 += d * (value - mWinMean);
+		} else {
+			double old = mWindow[pos];
+			double mean = mWinMean + (value - old) / size;
+			mWinM2 += (value - old) * (value - mean + old - mWinMean);
+			mWinMean = mean;
+			if (++mSinceRecompute >= size) {
+				recompute(value, pos);
+			}
+			long evicted = mSequence - size;
+			if (mMinSize > 0 && mMinQueue[mMinHead] == evicted) {
+				mMinHead = (mMinHead + 1) % size;
+				mMinSize--;
+			}
+			if (mMaxSize > 0 && mMaxQueue[mMaxHead] == evicted) {
+				mMaxHead = (mMaxHead + 1) % size;
+				mMaxSize--;
+			}
+		}
+		mWindow[pos] = value;
+		pushExtremes(value);
+		mSequence++;
+
+		publish();
+	}
+
+	/*
+	 * Copies the session statistics into out and returns it.
+	 */
+	public SampleStatistics getSession(SampleStatistics out) {
+		for (;;) {
+			int version = mVersion;
+			if ((version & 1) == 0) {
+				long count = mPubCount;
+				double mean = mPubMean;
+				double m2 = mPubM2;
+				double min = mPubMin;
+				double max = mPubMax;
+				if (version == mVersion) {
+					out.set(count, mean, m2, min, max);
+					return out;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	/*
+	 * Copies the statistics of the window into out and returns it.
+	 */
+	public SampleStatistics getWindow(SampleStatistics out) {
+		for (;;) {
+			int version = mVersion;
+			if ((version & 1) == 0) {
+				long count = mPubWinCount;
+				double mean = mPubWinMean;
+				double m2 = mPubWinM2;
+				double min = mPubWinMin;
+				double max = mPubWinMax;
+				if (version == mVersion) {
+					out.set(count, mean, m2, min, max);
+					return out;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	private double valueAt(long[] queue, int head, int i) {
+		return mWindow[(int) (queue[(head + i) % queue.length] % mWindow.length)];
+	}
+
+	private void allocateWindow(int size) {
+		mWindow = new double[size];
+		mMinQueue = new long[size];
+		mMaxQueue = new long[size];
+		mSequence = 0;
+		mWinCount = 0;
+		mWinMean = 0;
+		mWinM2 = 0;
+		mSinceRecompute = 0;
+		mMinHead = 0;
+		mMinSize = 0;
+		mMaxHead = 0;
+		mMaxSize = 0;
+	}
+
+	/*
+	 * Moves the newest min(count, size) window samples into a window of the
+	 * new size and rebuilds its sums and deques from them. Runs once per
+	 * resize, so add() stays O(1).
+	 */
+	private void resizeWindow(int size) {
+		double[] old = mWindow;
+		int keep = Math.min(mWinCount, size);
+		long from = mSequence - keep;
+		allocateWindow(size);
+		double sum = 0;
+		for (int i = 0; i < keep; i++) {
+			mWindow[i] = old[(int) ((from + i) % old.length)];
+			sum += mWindow[i];
+		}
+		if (keep > 0) {
+			mWinMean = sum / keep;
+			for (int i = 0; i < keep; i++) {
+				double d = mWindow[i] - mWinMean;
+				mWinM2 += d * d;
+			}
+		}
+		mWinCount = keep;
+		// renumbered so that sample i of the new window has sequence i
+		for (mSequence = 0; mSequence < keep; mSequence++) {
+			pushExtremes(mWindow[(int) mSequence]);
+		}
+	}
+
+	// appends sample mSequence to the min and max deques
+	private void pushExtremes(double value) {
+		int size = mWindow.length;
+		while (mMinSize > 0 && valueAt(mMinQueue, mMinHead, mMinSize - 1) >= value) {
+			mMinSize--;
+		}
+		mMinQueue[(mMinHead + mMinSize++) % size] = mSequence;
+		while (mMaxSize > 0 && valueAt(mMaxQueue, mMaxHead, mMaxSize - 1) <= value) {
+			mMaxSize--;
+		}
+		mMaxQueue[(mMaxHead + mMaxSize++) % size] = mSequence;
+	}
+
+	/*
+	 * Removal accumulates rounding error; refresh the window sums exactly
+	 * once per window length, which keeps the update O(1) amortized.
+	 */
+	private void recompute(double value, int pos) {
+		double saved = mWindow[pos];
+		mWindow[pos] = value;
+		double sum = 0;
+		for (int i = 0; i < mWindow.length; i++) {
+			sum += mWindow[i];
+		}
+		double mean = sum / mWindow.length;
+		double m2 = 0;
+		for (int i = 0; i < mWindow.length; i++) {
+			double d = mWindow[i] - mean;
+			m2 += d * d;
+		}
+		mWindow[pos] = saved;
+		mWinMean = mean;
+		mWinM2 = m2;
+		mSinceRecompute = 0;
+	}
+
+	private void publish() {
+		mVersion++;
+		mPubCount = mCount;
+		mPubMean = mMean;
+		mPubM2 = mM2;
+		mPubMin = mMin;
+		mPubMax = mMax;
+		mPubWinCount = mWinCount;
+		mPubWinMean = mWinMean;
+		mPubWinM2 = mWinM2;
+		mPubWinMin = mWindow[(int) (mMinQueue[mMinHead] % mWindow.length)];
+		mPubWinMax = mWindow[(int) (mMaxQueue[mMaxHead] % mWindow.length)];
+		mVersion++;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Read position of one consumer of a ring buffer. Each consumer thread
+ * keeps its own cursor; the ring itself never waits for consumers, so
+ * samples overwritten before they were read are counted as lost.
+ */
+public class SampleCursor {
+	private static final String TAG = SampleCursor.class.getSimpleName();
+	private long mNext;
+	private long mLost = 0;
+
+	public SampleCursor() {
+		this(0);
+	}
+
+	public SampleCursor(long next) {
+		mNext = next;
+	}
+
+	// sequence number of the next sample to read
+	public long getNext() {
+		return mNext;
+	}
+
+	public long getLost() {
+		return mLost;
+	}
+
+	public void seek(long next) {
+		mNext = next;
+	}
+
+	void advance(long first, int count) {
+		if (first > mNext) {
+			mLost += first - mNext;
+		}
+		mNext = first + count;
+	}
+}
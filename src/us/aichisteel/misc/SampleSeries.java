@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Read-only view of one series of a ring buffer, read in place without
+ * copying. The bounds are fixed when the view is created and on each
+ * refresh(), so size() and the meaning of get(i) stay stable between
+ * refreshes. Keep one view per consumer and refresh it per frame; neither
+ * call allocates.
+ */
+public interface SampleSeries {
+	// takes new bounds covering the samples retained now
+	public void refresh();
+
+	public int size();
+
+	// sequence number of get(0)
+	public long getFirstSequence();
+
+	/*
+	 * Sample i of the snapshot, 0 being the oldest. Values the writer
+	 * overwrote after refresh() read as newer samples; see isIntact().
+	 */
+	public double get(int i);
+
+	// false once the writer has overwritten part of the snapshot
+	public boolean isIntact();
+
+	/*
+	 * Copies the snapshot into dst from off, leaving out any oldest samples
+	 * overwritten since refresh(). Returns the number copied, which are the
+	 * last ones of the snapshot.
+	 */
+	public int copyTo(double[] dst, int off);
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Consumer of a stream of samples, such as a streaming spectrum or tone
+ * detector fed from a sensor's read loop.
+ */
+public interface SampleSink {
+	/*
+	 * Appends len samples and returns the number of results (spectra,
+	 * tone blocks, ...) they completed.
+	 */
+	int push(double[] a, int off, int len);
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Aichi Micro Intelligent Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * Distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package us.aichisteel.misc;
+
+/**
+ * Count, mean, variance, RMS and extremes of a set of samples, as copied
+ * out of a RunningStatistics. Variance and standard deviation are those
+ * of the population (divided by count).
+ */
+public class SampleStatistics {
+	private static final String TAG = SampleStatistics.class.getSimpleName();
+	private long mCount = 0;
+	private double mMean = 0;
+	private double mM2 = 0; // sum of squared deviations from the mean
+	private double mMin = Double.NaN;
+	private double mMax = Double.NaN;
+
+	void set(long count, double mean, double m2, double min, double max) {
+		mCount = count;
+		mMean = mean;
+		mM2 = m2;
+		mMin = min;
+		mMax = max;
+	}
+
+	public long getCount() {
+		return mCount;
+	}
+
+	public double getMean() {
+		return mCount == 0 ? Double.NaN : mMean;
+	}
+
+	public double getVariance() {
+		return mCount == 0 ? Double.NaN : Math.max(0, mM2) / mCount;
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getRms() {
+		return Math.sqrt(mMean * mMean + getVariance());
+	}
+
+	public double getMin() {
+		return mMin;
+	}
+
+	public double getMax() {
+		return mMax;
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + mCount + " mean=" + getMean() + " sd=" + getStdDev()
+				+ " rms=" + getRms() + " min=" + mMin + " max=" + mMax;
+	}
+}